@@ -0,0 +1,51 @@
+package com.rsquared.taskmaster;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+// Starts the main activity and logs how long it took to show its first frame, and to show every
+// task loaded from the database (the first frame must come no later than the tasks)
+@RunWith(AndroidJUnit4.class)
+public class StartupTimerTest {
+
+  private static final String tag = "StartupTimerTest";
+  private static final long timeoutMillis = 10000;
+
+  @Test
+  public void firstFrameComesBeforeFullyLoaded() {
+    try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+      long[] times = waitForTimes();
+      Log.i(tag, "first frame: " + times[0] + " ms, fully loaded: " + times[1] + " ms");
+      assertTrue(times[0] >= 0);
+      assertTrue(times[1] >= times[0]);
+    }
+  }
+
+  // Wait until both times are known (or time out), and return them
+  private static long[] waitForTimes() {
+    long[] times = new long[2];
+    long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+    do {
+      InstrumentationRegistry.getInstrumentation()
+          .runOnMainSync(
+              () -> {
+                times[0] = StartupTimer.getTimeToFirstFrame();
+                times[1] = StartupTimer.getTimeToFullyLoaded();
+              });
+      if (times[0] >= 0 && times[1] >= 0) {
+        break;
+      }
+      SystemClock.sleep(50);
+    } while (SystemClock.uptimeMillis() < deadline);
+    return times;
+  }
+}
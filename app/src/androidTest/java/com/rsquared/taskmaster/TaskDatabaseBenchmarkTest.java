@@ -0,0 +1,139 @@
+package com.rsquared.taskmaster;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_COMPLETED;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_IMPORTANCE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_TASK;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_URGENCY;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.ID_CLAUSE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.TABLE_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Compares adding and updating 10,000 tasks one row at a time (ContentValues built and each row
+// committed on its own, as the app used to) against the batch methods (one transaction,
+// statements compiled once), and logs rows per second
+@RunWith(AndroidJUnit4.class)
+public class TaskDatabaseBenchmarkTest {
+
+  private static final String tag = "TaskDatabaseBenchmark";
+  private static final String databaseName = "TaskMasterBenchmark.db";
+  private static final int numTasks = 10000;
+
+  private Context context;
+  private TaskDatabaseHelper taskDatabaseHelper;
+
+  @Before
+  public void openDatabase() {
+    context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    context.deleteDatabase(databaseName);
+    taskDatabaseHelper = new TaskDatabaseHelper(context, databaseName);
+  }
+
+  @After
+  public void deleteDatabase() {
+    taskDatabaseHelper.close();
+    context.deleteDatabase(databaseName);
+  }
+
+  @Test
+  public void batchesAreFasterThanSingleRows() {
+
+    // One row at a time
+    SQLiteDatabase database = taskDatabaseHelper.getWritableDatabase();
+    long start = System.nanoTime();
+    for (Task task : makeTasks("single")) {
+      addTask(database, task);
+    }
+    double singleAddRate = rowsPerSecond(start);
+    List<Task> singleTasks = new ArrayList<>(taskDatabaseHelper.getTasks(false));
+    for (Task task : singleTasks) {
+      task.setCompleted(true);
+    }
+    start = System.nanoTime();
+    for (Task task : singleTasks) {
+      updateTask(database, task);
+    }
+    double singleUpdateRate = rowsPerSecond(start);
+
+    // In batches
+    start = System.nanoTime();
+    taskDatabaseHelper.addTasks(makeTasks("batch"));
+    double batchAddRate = rowsPerSecond(start);
+    List<Task> batchTasks = new ArrayList<>();
+    for (Task task : taskDatabaseHelper.getTasks(true)) {
+      task.setCompleted(true);
+      batchTasks.add(task);
+    }
+    assertEquals(numTasks, batchTasks.size());
+    start = System.nanoTime();
+    taskDatabaseHelper.updateTasks(batchTasks);
+    double batchUpdateRate = rowsPerSecond(start);
+
+    Log.i(
+        tag,
+        String.format(
+            "add: %.0f rows/s one by one, %.0f rows/s batched", singleAddRate, batchAddRate));
+    Log.i(
+        tag,
+        String.format(
+            "update: %.0f rows/s one by one, %.0f rows/s batched",
+            singleUpdateRate,
+            batchUpdateRate));
+
+    // Every row was written, and every update stuck
+    Set<Task> allTasks = taskDatabaseHelper.getTasks(false);
+    assertEquals(2 * numTasks, allTasks.size());
+    assertEquals(0, taskDatabaseHelper.getTasks(true).size());
+    assertTrue(batchAddRate > singleAddRate);
+    assertTrue(batchUpdateRate > singleUpdateRate);
+  }
+
+  // The original way of adding a task: a row of ContentValues, inserted on its own
+  private static void addTask(SQLiteDatabase database, Task newTask) {
+    ContentValues values = new ContentValues();
+    values.put(COLUMN_NAME_TASK, newTask.getLabel());
+    values.put(COLUMN_NAME_URGENCY, newTask.getUrgency());
+    values.put(COLUMN_NAME_IMPORTANCE, newTask.getImportance());
+    values.put(COLUMN_NAME_COMPLETED, newTask.getCompleted());
+    database.insert(TABLE_NAME, null, values);
+  }
+
+  // ... and of updating one
+  private static void updateTask(SQLiteDatabase database, Task task) {
+    ContentValues values = new ContentValues();
+    values.put(COLUMN_NAME_TASK, task.getLabel());
+    values.put(COLUMN_NAME_URGENCY, task.getUrgency());
+    values.put(COLUMN_NAME_IMPORTANCE, task.getImportance());
+    values.put(COLUMN_NAME_COMPLETED, task.getCompleted());
+    database.update(TABLE_NAME, values, ID_CLAUSE, new String[] {Long.toString(task.getID())});
+  }
+
+  private static List<Task> makeTasks(String prefix) {
+    List<Task> tasks = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      tasks.add(new Task(prefix + " " + i, i % 101, (i * 7) % 101, false));
+    }
+    return tasks;
+  }
+
+  private static double rowsPerSecond(long start) {
+    return numTasks / ((System.nanoTime() - start) / 1e9);
+  }
+}
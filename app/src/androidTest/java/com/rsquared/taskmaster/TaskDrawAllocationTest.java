@@ -0,0 +1,141 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Checks that drawing the task canvas (and a drag shadow, beyond its own picture) allocates
+// nothing once the first frame has been drawn, so scrolling and dragging never trigger garbage
+// collection.  Allocations are counted with Debug's allocation counting, which is deprecated but
+// is the only count of one thread's allocations available on every supported version.
+@RunWith(AndroidJUnit4.class)
+public class TaskDrawAllocationTest {
+
+  private static final int width = 1000;
+  private static final int height = 1000;
+  private static final int warmUpFrames = 3;
+  private static final int measuredFrames = 20;
+  private static final float shadowScale = 3;
+
+  // Every frame re-draws the tasks themselves (not just the cached task layer): their labels,
+  // check marks and groups, then the same as a density map
+  @Test
+  public void steadyStateFramesDoNotAllocate() {
+    InstrumentationRegistry.getInstrumentation()
+        .runOnMainSync(
+            () -> {
+              TaskDraw taskDraw = makeTaskDraw();
+              List<TaskLayout.TaskState> states = makeStates();
+              TaskLayout taskLayout = new TaskLayout();
+              taskLayout.rebuild(TaskDraw.geometry, states, () -> false);
+              TaskLayoutSnapshot snapshot = taskLayout.snapshot();
+              assertTrue(snapshot.taskGroups.length > 0);
+              TaskLayoutSnapshot densitySnapshot =
+                  new TaskLayoutSnapshot(
+                      new TaskDensity(TaskDraw.geometry, states), TaskDraw.geometry);
+
+              Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+              Canvas canvas = new Canvas(bitmap);
+              Runnable drawFrame =
+                  () -> {
+                    taskDraw.invalidateTasks();
+                    taskDraw.onDraw(canvas);
+                  };
+
+              taskDraw.publishLayout(snapshot);
+              assertEquals("allocations drawing tasks", 0, countAllocations(drawFrame));
+              taskDraw.publishLayout(densitySnapshot);
+              assertEquals("allocations drawing density map", 0, countAllocations(drawFrame));
+            });
+  }
+
+  // A drag shadow that is not cached yet is drawn enlarged, and nothing is allocated but the
+  // picture itself (its bitmap, a canvas to draw it with, and its place in the cache)
+  @Test
+  public void dragShadowOnlyAllocatesItsPicture() {
+    InstrumentationRegistry.getInstrumentation()
+        .runOnMainSync(
+            () -> {
+              TaskDraw taskDraw = makeTaskDraw();
+              Task shadowTask = new Task(1, "Shadow", 30, 70, true);
+              taskDraw.setTaskGraphic(shadowTask);
+              Rect touchArea = shadowTask.getTaskGraphic().getTouchArea();
+              int shadowWidth = (int) (shadowScale * touchArea.width()) + 1;
+              int shadowHeight = (int) (shadowScale * touchArea.height()) + 1;
+              Canvas shadowCanvas =
+                  new Canvas(
+                      Bitmap.createBitmap(shadowWidth, shadowHeight, Bitmap.Config.ARGB_8888));
+
+              Runnable drawShadow =
+                  () -> taskDraw.drawDragShadow(shadowCanvas, shadowTask, shadowScale);
+              Runnable makePicture =
+                  () -> {
+                    Bitmap shadow =
+                        Bitmap.createBitmap(shadowWidth, shadowHeight, Bitmap.Config.ARGB_8888);
+                    new Canvas(shadow);
+                    DragShadowCache.put(
+                        shadowTask, shadowScale, shadowWidth, shadowHeight, shadow);
+                  };
+
+              assertEquals(
+                  "allocations drawing drag shadow",
+                  countAllocations(makePicture),
+                  countAllocations(drawShadow));
+            });
+  }
+
+  // Set up a task canvas the way the fragment does
+  private static TaskDraw makeTaskDraw() {
+    TaskDraw taskDraw =
+        new TaskDraw(InstrumentationRegistry.getInstrumentation().getTargetContext(), null);
+    taskDraw.setupPaintRect();
+    taskDraw.setupPaintText();
+    taskDraw.setDimensions(width, height);
+    taskDraw.setupCanvasValues();
+    return taskDraw;
+  }
+
+  // Spread out tasks (some checked off), plus a pile of them that ends up as a group
+  private static List<TaskLayout.TaskState> makeStates() {
+    List<TaskLayout.TaskState> states = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      Task task = new Task(i, "Task " + i, (i * 37) % 101, (i * 53) % 101, i % 3 == 0);
+      states.add(new TaskLayout.TaskState(task));
+    }
+    for (int i = 0; i < 10; i++) {
+      Task task = new Task(100 + i, "Pile " + i, 50, 50, false);
+      states.add(new TaskLayout.TaskState(task));
+    }
+    return states;
+  }
+
+  // Objects allocated on this thread over the measured runs of some drawing, after warming up.
+  // Drag shadows are forgotten before every run (outside the count), so each run draws one.
+  private static int countAllocations(Runnable draw) {
+    for (int frame = 0; frame < warmUpFrames; frame++) {
+      DragShadowCache.clear();
+      draw.run();
+    }
+    Debug.resetThreadAllocCount();
+    for (int frame = 0; frame < measuredFrames; frame++) {
+      DragShadowCache.clear();
+      Debug.startAllocCounting();
+      draw.run();
+      Debug.stopAllocCounting();
+    }
+    return Debug.getThreadAllocCount();
+  }
+}
@@ -0,0 +1,175 @@
+package com.rsquared.taskmaster;
+
+import android.content.Context;
+import android.graphics.Color;
+
+import androidx.core.content.ContextCompat;
+
+import org.jetbrains.annotations.NotNull;
+
+// Colors of the urgency vs importance gradient (from the "highest" color in the most urgent and
+// important corner, through "middle", to "lowest"), worked out once for every pair of ratings
+// from 0 to 100, so coloring a popup, a tile or a task is a single array read.  The table is made
+// from the current theme's colors the first time it is needed, and made again after the
+// configuration (and so possibly the theme) changes.  Only used from the user interface thread.
+public final class ColorTable {
+
+  // PRIVATE MEMBERS
+
+  private static final int size = 101; // ratings from 0 to 100
+  private static int[] colors; // indexed by importance * size + urgency (null until needed)
+
+  private ColorTable() {}
+
+  // GETTER FUNCTIONS
+
+  // Color of the gradient at an importance and urgency (clamped to 0 - 100)
+  public static int getColor(@NotNull Context context, int importance, int urgency) {
+    if (colors == null) {
+      colors = makeTable(context);
+    }
+    importance = Math.max(0, Math.min(size - 1, importance));
+    urgency = Math.max(0, Math.min(size - 1, urgency));
+    return colors[importance * size + urgency];
+  }
+
+  // SETTER FUNCTIONS
+
+  // Forget the table, so the next color is worked out from the theme's colors again
+  public static void invalidate() {
+    colors = null;
+  }
+
+  // TABLE CONSTRUCTION
+
+  private static int @NotNull [] makeTable(@NotNull Context context) {
+
+    // Get colors from layout file
+    int highest = ContextCompat.getColor(context, R.color.highest);
+    int middle = ContextCompat.getColor(context, R.color.middle);
+    int lowest = ContextCompat.getColor(context, R.color.lowest);
+
+    int[] table = new int[size * size];
+    for (int importance = 0; importance < size; importance++) {
+      for (int urgency = 0; urgency < size; urgency++) {
+        table[importance * size + urgency] = blend(highest, middle, lowest, importance, urgency);
+      }
+    }
+    return table;
+  }
+
+  // Color at a point of the gradient, from the three colors that it blends between
+  // A 3-value gradient can be interpreted as 4 2-color gradients, four quadrants w/ four corners
+  private static int blend(int highest, int middle, int lowest, int importance, int urgency) {
+
+    // Divide each color into color bands
+
+    int highestA = (highest >> 24) & 0xFF;
+    int highestR = (highest >> 16) & 0xFF;
+    int highestB = (highest >> 8) & 0xFF;
+    int highestG = highest & 0xFF;
+
+    int lowestA = (lowest >> 24) & 0xFF;
+    int lowestR = (lowest >> 16) & 0xFF;
+    int lowestB = (lowest >> 8) & 0xFF;
+    int lowestG = lowest & 0xFF;
+
+    int middleA = (middle >> 24) & 0xFF;
+    int middleR = (middle >> 16) & 0xFF;
+    int middleB = (middle >> 8) & 0xFF;
+    int middleG = middle & 0xFF;
+
+    // Compile intermediate colors by averaging in each band
+
+    int lowMixA = (middleA + lowestA) / 2;
+    int lowMixR = (middleR + lowestR) / 2;
+    int lowMixG = (middleG + lowestG) / 2;
+    int lowMixB = (middleB + lowestB) / 2;
+
+    int highMixA = (middleA + highestA) / 2;
+    int highMixR = (middleR + highestR) / 2;
+    int highMixG = (middleG + highestG) / 2;
+    int highMixB = (middleB + highestB) / 2;
+
+    // Compile intermediate colors
+
+    int lowMix = lowMixA << 24 | lowMixR << 16 | lowMixB << 8 | lowMixG;
+    int highMix = highMixA << 24 | highMixR << 16 | highMixB << 8 | highMixG;
+
+    // For storing the color for each quadrant's corner
+    int upperLeft;
+    int upperRight;
+    int lowerRight;
+    int lowerLeft;
+
+    // Weight factor for each quadrant corner's color (closer to corner, more of that color)
+    float xWeight;
+    float yWeight;
+
+    // Divide colors by quadrant and pick one based on importance and urgency, assign colors
+    if (importance > 50) {
+      yWeight = (importance - 50) / (float) 50;
+      if (urgency > 50) {
+        xWeight = (urgency - 50) / (float) 50;
+        upperLeft = highest;
+        upperRight = highMix;
+        lowerRight = middle;
+        lowerLeft = highMix;
+      } else {
+        xWeight = urgency / (float) 50;
+        upperLeft = highMix;
+        upperRight = middle;
+        lowerRight = lowMix;
+        lowerLeft = middle;
+      }
+    } else {
+      yWeight = importance / (float) 50;
+      if (urgency < 50) {
+        xWeight = urgency / (float) 50;
+        upperLeft = middle;
+        upperRight = lowMix;
+        lowerRight = lowest;
+        lowerLeft = lowMix;
+      } else {
+        xWeight = (urgency - 50) / (float) 50;
+        upperLeft = highMix;
+        upperRight = middle;
+        lowerRight = lowMix;
+        lowerLeft = middle;
+      }
+    }
+
+    // Given quadrant, apply two-factor weight to the color of each corner to get final color
+
+    int resultA =
+        (int)
+            (Color.alpha(upperLeft) * (yWeight * xWeight)
+                + Color.alpha(lowerRight) * (1 - xWeight) * (1 - yWeight)
+                + Color.alpha(upperRight) * yWeight * (1 - xWeight)
+                + Color.alpha(lowerLeft) * (1 - yWeight) * xWeight);
+
+    int resultR =
+        (int)
+            (Color.red(upperLeft) * (yWeight * xWeight)
+                + Color.red(lowerRight) * (1 - xWeight) * (1 - yWeight)
+                + Color.red(upperRight) * yWeight * (1 - xWeight)
+                + Color.red(lowerLeft) * (1 - yWeight) * xWeight);
+
+    int resultG =
+        (int)
+            (Color.green(upperLeft) * (yWeight * xWeight)
+                + Color.green(lowerRight) * (1 - xWeight) * (1 - yWeight)
+                + Color.green(upperRight) * yWeight * (1 - xWeight)
+                + Color.green(lowerLeft) * (1 - yWeight) * xWeight);
+
+    int resultB =
+        (int)
+            (Color.blue(upperLeft) * (yWeight * xWeight)
+                + Color.blue(lowerRight) * (1 - xWeight) * (1 - yWeight)
+                + Color.blue(upperRight) * yWeight * (1 - xWeight)
+                + Color.blue(lowerLeft) * (1 - yWeight) * xWeight);
+
+    // Compile color and return result
+    return resultA << 24 | resultR << 16 | resultG << 8 | resultB;
+  }
+}
@@ -0,0 +1,107 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import org.jetbrains.annotations.NotNull;
+
+// Pictures of tasks drawn enlarged for drag shadows, so dragging the same task again (or the
+// system asking for the shadow again) copies a bitmap instead of drawing large text.  A picture
+// is kept for a task as it looked when drawn (its label and check mark), and the least recently
+// dragged are dropped once the pictures take up more than a share of the app's memory (room for
+// several shadows of long labels, which are a few megabytes each at drag size).  Only used from
+// the user interface thread.
+public final class DragShadowCache {
+
+  // PRIVATE MEMBERS
+
+  private static final int maxBytes =
+      (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+
+  private static final LruCache<Key, Bitmap> shadows =
+      new LruCache<Key, Bitmap>(maxBytes) {
+        @Override
+        protected int sizeOf(Key key, Bitmap shadow) {
+          return shadow.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Key key, Bitmap oldShadow, Bitmap newShadow) {
+          oldShadow.recycle(); // only ever drawn from while being handed out, so free it now
+        }
+      };
+
+  private static final Key probe = new Key(); // for looking pictures up without allocating
+
+  private DragShadowCache() {}
+
+  // GETTER FUNCTIONS
+
+  // Picture of the task as it looks now, at the given scale and size (null if there is none)
+  public static Bitmap get(@NotNull Task task, float scaleFactor, int width, int height) {
+    probe.set(task, scaleFactor, width, height);
+    return shadows.get(probe);
+  }
+
+  // SETTER FUNCTIONS
+
+  // (A picture too big to ever fit is not kept, rather than being dropped and freed at once)
+  public static void put(
+      @NotNull Task task, float scaleFactor, int width, int height, @NotNull Bitmap shadow) {
+    if (shadow.getByteCount() > maxBytes) {
+      return;
+    }
+    Key key = new Key();
+    key.set(task, scaleFactor, width, height);
+    shadows.put(key, shadow);
+  }
+
+  // Forget every picture (when the way tasks are drawn changes)
+  public static void clear() {
+    shadows.evictAll();
+  }
+
+  // Cache key: a task (the task itself, not an equal one), how it looked, and how it was drawn
+  private static final class Key {
+
+    private Task task;
+    private String label;
+    private boolean completed;
+    private float scaleFactor;
+    private int width;
+    private int height;
+
+    // (Only the probe is ever set again, and it is never stored)
+    private void set(@NotNull Task task, float scaleFactor, int width, int height) {
+      this.task = task;
+      label = task.getLabel();
+      completed = task.getCompleted();
+      this.scaleFactor = scaleFactor;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return task == key.task
+          && completed == key.completed
+          && scaleFactor == key.scaleFactor
+          && width == key.width
+          && height == key.height
+          && label.equals(key.label);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = System.identityHashCode(task);
+      hash = 31 * hash + label.hashCode();
+      hash = 31 * hash + (completed ? 1 : 0);
+      hash = 31 * hash + Float.floatToIntBits(scaleFactor);
+      return 31 * (31 * hash + width) + height;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.rsquared.taskmaster;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Where a task being dragged would end up if it were dropped at the current point: on its own,
+// stacked with the tasks it would overlap (nudged apart), or collapsed into a group.  Worked out
+// from the published layout, looking only at what the dropped task would touch, and within a time
+// budget: if that runs out, only the dropped task itself is shown.  This is a preview, so tasks
+// further away that the change could also move are not followed up.  Used on the user interface
+// thread only (see TaskDraw.previewDrop()).
+public class DropPreview {
+
+  // What dropping the task would do
+  public enum Outcome {
+    NONE, // nothing to show (not dragging, or outside the view)
+    ALONE, // the task on its own (also shown when the time budget ran out)
+    NUDGED, // the task stacked with its neighbours
+    GROUPED // the task collapsed into a (new or existing) group
+  }
+
+  // PRIVATE MEMBERS
+
+  private static final int initialCapacity = 8;
+
+  private Outcome outcome = Outcome.NONE;
+  private final TaskGraphicBuffer graphics = new TaskGraphicBuffer(initialCapacity);
+  private int size = 0; // entries in the buffer: the task (or group), then any neighbours
+  private int taskIndex = 0; // entry of the dropped task itself
+  private String label; // label of the dropped task, or of the group it would be in
+
+  // Working space
+  private final TaskGrid.Hits hits = new TaskGrid.Hits();
+  private final List<TaskLayout.TaskState> stack = new ArrayList<>();
+
+  // SETTER FUNCTIONS
+
+  public void clear() {
+    outcome = Outcome.NONE;
+    size = 0;
+  }
+
+  // Work out the preview of dropping the task at the given ratings, taking no longer than the
+  // budget (roughly) to do so
+  public void update(
+      @NotNull TaskLayoutSnapshot snapshot,
+      @NotNull Task task,
+      int urgency,
+      int importance,
+      long budgetNanos) {
+    long deadline = System.nanoTime() + budgetNanos;
+    TaskGeometry geometry = snapshot.geometry;
+    if (!geometry.isVisible(urgency, importance)) {
+      clear();
+      return;
+    }
+
+    // The task on its own
+    TaskLayout.TaskState dropped =
+        new TaskLayout.TaskState(task, task.getLabel(), urgency, importance);
+    showAlone(geometry, dropped);
+    if (snapshot.taskDensity != null) {
+      return; // no layout to fit into (only tile counts)
+    }
+    int left = graphics.getLeft(0);
+    int top = graphics.getTop(0);
+    int right = graphics.getRight(0);
+    int bottom = graphics.getBottom(0);
+
+    // Dropped onto a group: it would join the group (the first one found, if there are several)
+    snapshot.taskGroupGrid.search(left, top, right, bottom, hits);
+    if (hits.size() > 0) {
+      TaskGroup taskGroup = snapshot.taskGroups[hits.get(0)];
+      int numTasks = taskGroup.getTasks().size();
+      if (taskGroup.isTaskInGroup(task)) {
+        numTasks--; // counted again below, at its new ratings
+      }
+      showGroup(
+          geometry,
+          numTasks + 1,
+          (taskGroup.getUrgency() * numTasks + urgency) / (numTasks + 1),
+          (taskGroup.getImportance() * numTasks + importance) / (numTasks + 1));
+      return;
+    }
+
+    // Dropped onto tasks drawn on their own: stacked with them, if they can be nudged far enough
+    snapshot.taskGrid.search(left, top, right, bottom, hits);
+    stack.clear();
+    stack.add(dropped);
+    for (int h = 0; h < hits.size(); h++) {
+      Task neighbour = snapshot.tasks[hits.get(h)];
+      if (neighbour != task) {
+        stack.add(new TaskLayout.TaskState(neighbour));
+      }
+      if (System.nanoTime() > deadline) {
+        return; // out of time: just the task on its own
+      }
+    }
+    int numTasks = stack.size();
+    if (numTasks == 1) {
+      return;
+    }
+    Collections.sort(stack, TaskGroup.taskOrder);
+    int urgencySum = 0;
+    int importanceSum = 0;
+    float[] baselines = new float[numTasks];
+    for (int i = 0; i < numTasks; i++) {
+      TaskLayout.TaskState state = stack.get(i);
+      geometry.makeGraphic(state.label, state.urgency, state.importance, graphics, i);
+      baselines[i] = graphics.getBaseline(i);
+      urgencySum += state.urgency;
+      importanceSum += state.importance;
+      if (state == dropped) {
+        taskIndex = i;
+      }
+    }
+    if (System.nanoTime() > deadline) {
+      showAlone(geometry, dropped);
+      return;
+    }
+    int averageUrgency = urgencySum / numTasks;
+    int averageImportance = importanceSum / numTasks;
+    float[] nudges = geometry.getNudges(averageUrgency, averageImportance, baselines);
+    for (int i = 0; i < numTasks; i++) {
+      if (!geometry.isWithinNudgeLimit(nudges[i])) {
+        showGroup(geometry, numTasks, averageUrgency, averageImportance);
+        return;
+      }
+    }
+    for (int i = 0; i < numTasks; i++) {
+      graphics.copy(i, graphics, i, (int) nudges[i]);
+    }
+    outcome = Outcome.NUDGED;
+    size = numTasks;
+  }
+
+  private void showAlone(@NotNull TaskGeometry geometry, @NotNull TaskLayout.TaskState dropped) {
+    geometry.makeGraphic(dropped.label, dropped.urgency, dropped.importance, graphics, 0);
+    outcome = Outcome.ALONE;
+    size = 1;
+    taskIndex = 0;
+    label = dropped.label;
+  }
+
+  private void showGroup(
+      @NotNull TaskGeometry geometry, int numTasks, int averageUrgency, int averageImportance) {
+    label = numTasks + " tasks";
+    geometry.makeGraphic(label, averageUrgency, averageImportance, graphics, 0);
+    outcome = Outcome.GROUPED;
+    size = 1;
+    taskIndex = 0;
+  }
+
+  // GETTER FUNCTIONS
+
+  public Outcome getOutcome() {
+    return outcome;
+  }
+
+  // Graphics to show: entry getTaskIndex() is the dropped task (or its group), and the others (up
+  // to getSize()) are the tasks it would be stacked with, where they would be moved to
+  public TaskGraphicBuffer getGraphics() {
+    return graphics;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getTaskIndex() {
+    return taskIndex;
+  }
+
+  // Label of the dropped task, or of the group it would be in
+  public String getLabel() {
+    return label;
+  }
+}
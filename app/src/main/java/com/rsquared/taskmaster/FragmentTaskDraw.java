@@ -12,6 +12,8 @@ import android.view.GestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.ScaleGestureDetector.SimpleOnScaleGestureListener;
 import android.view.View;
 import android.view.View.DragShadowBuilder;
 import android.view.View.OnDragListener;
@@ -83,6 +85,20 @@ public class FragmentTaskDraw extends Fragment {
                   return true;
                 }
 
+                // Pan around the graph by dragging a finger across it (when zoomed in)
+                @Override
+                public boolean onScroll(
+                    MotionEvent downEvent,
+                    MotionEvent moveEvent,
+                    float distanceX,
+                    float distanceY) {
+                  if (groupPopup.getVisibility() == View.VISIBLE) {
+                    return false;
+                  }
+                  taskDraw.panBy(distanceX, distanceY);
+                  return true;
+                }
+
                 @Override
                 public boolean onSingleTapConfirmed(MotionEvent motionEvent) {
 
@@ -103,7 +119,7 @@ public class FragmentTaskDraw extends Fragment {
                   if (touchedTask != null) {
                     touchedTask.setCompleted(!touchedTask.getCompleted());
                     taskViewModel.updateTask(touchedTask);
-                    taskDraw.invalidate(); // update image
+                    taskDraw.invalidateTask(touchedTask); // update image (just that task)
                   }
 
                   // If tapping a group, then show the group popup
@@ -147,6 +163,7 @@ public class FragmentTaskDraw extends Fragment {
 
                   // Create shadow builder to display task while being dragged and dropped
                   if (touchedTask != null) {
+                    taskDraw.setTaskGraphic(touchedTask); // shape of the drag shadow
                     MyDragShadowBuilder shadowBuilder = new MyDragShadowBuilder(touchedTask);
 
                     // Past a certain Android release, the function name changed
@@ -170,27 +187,31 @@ public class FragmentTaskDraw extends Fragment {
             // For each relevant drag state...
             switch (action) {
 
-              // Refresh screen (without dragged task) at drag beginning
+              // Hide just the dragged task (the rest of the layout stays as it is while dragging)
               case DragEvent.ACTION_DRAG_STARTED:
-                newTask.setMoving(true);
-                setupViews();
+                taskDraw.startMovingTask(newTask);
+                break;
+
+              // Show where the task would land, and what it would be stacked or grouped with
+              case DragEvent.ACTION_DRAG_LOCATION:
+                int[] previewRatings = getDropRatings(event);
+                taskDraw.previewDrop(newTask, previewRatings[0], previewRatings[1]);
                 break;
 
               // Grab the location of the dropped task and assign new urgency and importance levels
               case DragEvent.ACTION_DROP:
-                float x = event.getX();
-                float y = event.getY() - (TaskDraw.padding + TaskDraw.fontBottom) * scaleFactor;
-                int[] ratings = taskDraw.getRatings(x, y);
+                int[] ratings = getDropRatings(event);
                 newTask.setUrgency(ratings[0]);
                 newTask.setImportance(ratings[1]);
-                newTask.setTaskGraphic(taskDraw.setGraphic(newTask.getLabel(), newTask.getUrgency(), newTask.getImportance()));
                 break;
 
-              // Stop drag process and update the new information up the chain, refresh screen
+              // Stop drag process and, if the task was dropped, update the new information up the
+              // chain, then re-layout only the neighbourhood of the moved task
               case DragEvent.ACTION_DRAG_ENDED:
-                newTask.setMoving(false);
-                taskViewModel.updateTask(newTask);
-                setupViews();
+                if (event.getResult()) {
+                  taskViewModel.updateTask(newTask);
+                }
+                taskDraw.stopMovingTask(newTask, event.getResult());
                 break;
             }
             return true;
@@ -208,6 +229,16 @@ public class FragmentTaskDraw extends Fragment {
                   return true;
                 }
 
+                // Scroll through the group's tasks (if there are more than fit)
+                @Override
+                public boolean onScroll(
+                    MotionEvent downEvent,
+                    MotionEvent moveEvent,
+                    float distanceX,
+                    float distanceY) {
+                  return groupPopup.scrollBy(distanceY);
+                }
+
                 // Interpret single tap anywhere on the screen
                 @Override
                 public boolean onSingleTapConfirmed(@NotNull MotionEvent motionEvent) {
@@ -217,7 +248,7 @@ public class FragmentTaskDraw extends Fragment {
                   if (touchedTask != null) {
                     touchedTask.setCompleted(!touchedTask.getCompleted());
                     taskViewModel.updateTask(touchedTask);
-                    groupPopup.invalidate();
+                    groupPopup.invalidateTask(touchedTask);
                   }
                   return true;
                 }
@@ -256,6 +287,7 @@ public class FragmentTaskDraw extends Fragment {
 
                     // Temporarily hide the task from the screen, enter drag builder
                     touchedTask.setMoving(true);
+                    taskDraw.setTaskGraphic(touchedTask); // shape of the drag shadow
                     MyDragShadowBuilder shadowBuilder = new MyDragShadowBuilder(touchedTask);
 
                     // Past a certain Android release, the function name changed
@@ -276,9 +308,39 @@ public class FragmentTaskDraw extends Fragment {
           final GestureDetector taskDrawDetector = new GestureDetector(context, taskDrawListener);
           taskDrawDetector.setOnDoubleTapListener(taskDrawListener);
           taskDrawDetector.setIsLongpressEnabled(true);
+
+          // Zoom in and out of the graph by pinching, around the point between the fingers
+          final ScaleGestureDetector zoomDetector =
+              new ScaleGestureDetector(
+                  context,
+                  new SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScale(@NotNull ScaleGestureDetector detector) {
+                      taskDraw.zoomBy(
+                          detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                      return true;
+                    }
+
+                    @Override
+                    public void onScaleEnd(@NotNull ScaleGestureDetector detector) {
+                      taskDraw.settleView();
+                    }
+                  });
           taskDraw.setOnTouchListener(
-              (View taskView, MotionEvent motionEvent) ->
-                  taskDrawDetector.onTouchEvent(motionEvent));
+              (View taskView, MotionEvent motionEvent) -> {
+                zoomDetector.onTouchEvent(motionEvent);
+
+                // (no taps, presses or panning in the middle of a pinch)
+                boolean handled =
+                    zoomDetector.isInProgress() || taskDrawDetector.onTouchEvent(motionEvent);
+
+                // Lay the tasks out for the view once the finger is lifted (after panning)
+                int action = motionEvent.getActionMasked();
+                if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                  taskDraw.settleView();
+                }
+                return handled;
+              });
           taskDraw.setOnDragListener(dragListener);
 
           // Finalize tap responses for the group popup canvas and tie them with the view objects
@@ -290,6 +352,14 @@ public class FragmentTaskDraw extends Fragment {
         });
   }
 
+  // Urgency and importance where a dragged task is (the finger is at the bottom left corner of
+  // the enlarged drag shadow, so the task's baseline is a little above it)
+  private int @NotNull [] getDropRatings(@NotNull DragEvent event) {
+    float x = event.getX();
+    float y = event.getY() - (TaskDraw.padding + TaskDraw.fontBottom) * scaleFactor;
+    return taskDraw.getRatings(x, y);
+  }
+
   // Customize task display while being dragged
   class MyDragShadowBuilder extends DragShadowBuilder {
 
@@ -314,8 +384,8 @@ public class FragmentTaskDraw extends Fragment {
 
     @Override
     public void onDrawShadow(Canvas canvas) {
-      // Draw over-sized task graphic
-      taskDraw.drawTask(canvas, movedTask, scaleFactor, true);
+      // Draw over-sized task graphic (drawn once, then copied for later drags)
+      taskDraw.drawDragShadow(canvas, movedTask, scaleFactor);
     }
   }
 
@@ -325,7 +395,6 @@ public class FragmentTaskDraw extends Fragment {
     groupPopup = requireActivity().findViewById(R.id.group_popup);
     popupBackground = requireActivity().findViewById(R.id.popup_background);
     taskViewModel = new ViewModelProvider(requireActivity()).get(TaskViewModel.class);
-    taskViewModel.deGroupTasks();
     taskDraw.initialize(taskViewModel, taskDraw.getWidth(), taskDraw.getHeight());
   }
 }
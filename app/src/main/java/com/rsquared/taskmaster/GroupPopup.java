@@ -2,13 +2,14 @@ package com.rsquared.taskmaster;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Rect;
 import android.graphics.drawable.GradientDrawable;
 import android.util.AttributeSet;
 import android.widget.FrameLayout;
 
-import androidx.core.content.ContextCompat;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
@@ -24,91 +25,58 @@ public class GroupPopup extends TaskDraw {
   private static float heightPopup;
   private static float widthPopup;
   private TaskGroup taskGroup;
+  private ArrayList<Task> tasks; // the group's tasks, in the group's (sorted) order, one per row
+  private float rowHeight; // height of one task's row (the same as its touch area)
+  private float scrollOffset; // how far down the rows the popup is scrolled
+  private final Rect clipBounds = new Rect();
 
   // Inherit constructor from parent
   public GroupPopup(Context context, AttributeSet attrs) {
     super(context, attrs);
   }
 
-  // Set up paint objects, graphics for the group, etc
+  // Set up paint objects, rows for the group, etc.  Only the rows that fit on the screen are
+  // measured and drawn, so opening a group of hundreds of tasks is as quick as a small one.
   public void initialize(TaskGroup taskGroup) {
     setupPaintRect();
     setupPaintText();
     setGroup(taskGroup);
-    nudgeTasks(taskGroup, true);
     setDimensions();
-    setGraphic();
     prepareCanvas();
   }
 
-  // Get dimensions for the group popup ahead of time, base on the location and size of tasks
+  // Get dimensions for the group popup ahead of time: a row per task, as many rows high as fit
+  // on the task canvas (scrolling through the rest), and as wide as the labels, if they are all
+  // on screen (otherwise as wide as fits)
   protected void setDimensions() {
-
-    // Declare and initialize individual values
-    float leftest = 0;
-    float rightest = 0;
-    float highest = 0;
-    float lowest = 0;
-
-    // Get the lowest lows and the highest highs of the collection of task graphics
-    if (taskGroup.getTasks().size() > 0) {
-      boolean first = true;
-      for (Task task : taskGroup.getTasks()) {
-        Rect touchArea = task.getTaskGraphic().getTouchArea();
-        if (first) {
-          first = false;
-          leftest = touchArea.left;
-          rightest = touchArea.right;
-          highest = touchArea.top;
-          lowest = touchArea.bottom;
-        } else {
-          leftest = min(leftest, touchArea.left);
-          rightest = max(rightest, touchArea.right);
-          highest = min(highest, touchArea.top);
-          lowest = max(lowest, touchArea.bottom);
-        }
-      }
-
-      // Translate the values gathered into canvas dimensions (with a little bit of a margin)
-      widthPopup = rightest - leftest + 2*marginInner;
-      heightPopup = lowest - highest + 2*marginInner;
-
-      // Translate values into uniform displacement to the origin, and move
-      float deltaX = -leftest + marginInner;
-      float deltaY = -highest + marginInner;
-      for (Task task : taskGroup.getTasks()) {
-        task.getTaskGraphic().move((int) deltaX, (int) deltaY);
+    rowHeight = geometry.getGridCellSize();
+    scrollOffset = 0;
+    float maxHeight = heightCanvas - 2 * margin;
+    float maxWidth = widthCanvas - 2 * margin;
+    heightPopup = Math.min(maxHeight, 2 * padding + tasks.size() * rowHeight);
+    if (heightPopup < maxHeight) {
+      float widestText = 0;
+      for (int i = 0; i < tasks.size(); i++) {
+        widestText = max(widestText, TextMeasureCache.getWidth(tasks.get(i).getLabel(), textSize));
       }
+      widthPopup = min(maxWidth, 2 * padding + checkBoxSide + spacing + widestText);
+    } else {
+      widthPopup = maxWidth;
     }
   }
 
   // User defined group
   public void setGroup(TaskGroup taskGroup) {
     this.taskGroup = taskGroup;
-  }
-
-  // Set up popup area by moving everything to the center
-  public void setGraphic() {
-
-    // Get the minimum size of the popup by joining each tasks' touch area
-    Rect groupArea = new Rect();
-    for (Task task : this.taskGroup.getTasks()) {
-      groupArea.union(new Rect(task.getTaskGraphic().getTouchArea()));
-    }
-
-    // Determine where to move each task based on the area gathered above
-    float deltaX = -groupArea.left + padding;
-    float deltaY = -groupArea.top + padding;
-    for (Task task : taskGroup.getTasks()) {
-      task.getTaskGraphic().move((int) deltaX, (int) deltaY);
-    }
+    tasks = taskGroup.getTasks();
   }
 
   // Set up popup background color, border thickness, dimensions, etc
   public void prepareCanvas() {
 
     // Determine background color of popup based on group location on taskDraw
-    int backgroundColor = getColor(taskGroup.getImportance(), taskGroup.getUrgency());
+    int backgroundColor =
+        ColorTable.getColor(getContext(), taskGroup.getImportance(), taskGroup.getUrgency());
     FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) this.getLayoutParams();
     params.height = (int) heightPopup;
     params.width = (int) widthPopup;
@@ -120,149 +88,61 @@ public class GroupPopup extends TaskDraw {
     setBackground(gradientDrawable);
   }
 
-  // Draw all the group's tasks
-  @Override
-  protected void onDraw(Canvas canvas) {
-    if (taskGroup != null) {
-      for (Task task : taskGroup.getTasks()) {
-        drawTask(canvas, task, 1, false);
-        System.out.println(task.toString());
-      }
+  // Scroll the rows by a distance (clamped to the ends of the list) and return whether they moved
+  public boolean scrollBy(float distance) {
+    float maxOffset = max(0, 2 * padding + tasks.size() * rowHeight - heightPopup);
+    float newOffset = max(0, min(maxOffset, scrollOffset + distance));
+    if (newOffset == scrollOffset) {
+      return false;
     }
+    scrollOffset = newOffset;
+    invalidate();
+    return true;
   }
 
-  // Return a task after touching an area by looping through each task and checking
-  public Task getTouchedTask(float x, float y) {
+  // Row of the task shown at a height on the popup (which may be outside the list)
+  private int getRow(float y) {
+    return (int) Math.floor((y + scrollOffset - padding) / rowHeight);
+  }
 
-    // Loop through all tasks
-    for (Task task : taskGroup.getTasks()) {
+  // Top of a row on the popup, as currently scrolled
+  private float getRowTop(int row) {
+    return padding + row * rowHeight - scrollOffset;
+  }
 
-      // If the tap coordinates were inside the touch area for a task, then save the task
-      if (task.getTaskGraphic().getTouchArea().contains((int) x, (int) y)) {
-        return task;
+  // Re-draw after one of the group's tasks changed (such as after checking it off), if it is in
+  // one of the rows on screen (the only ones that can be tapped).  Only those rows are drawn.
+  @Override
+  public void invalidateTask(@NotNull Task task) {
+    int last = min(tasks.size() - 1, getRow(heightPopup));
+    for (int row = max(0, getRow(0)); row <= last; row++) {
+      if (tasks.get(row) == task) {
+        invalidate();
+        return;
       }
     }
-    return null; // nothing hit if you've made it this far
   }
 
-  // Determine color of popup based on the groups' relative location on the taskDraw canvas
-  // A 3-value gradient can be interpreted as 4 2-color gradients, four quadrants w/ four corners
-  public int getColor(int importance, int urgency) {
-
-    // Get colors from layout file
-
-    int highest = ContextCompat.getColor(getContext(), R.color.highest);
-    int middle = ContextCompat.getColor(getContext(), R.color.middle);
-    int lowest = ContextCompat.getColor(getContext(), R.color.lowest);
-
-    // Divide each color into color bands
-
-    int highestA = (highest >> 24) & 0xFF;
-    int highestR = (highest >> 16) & 0xFF;
-    int highestB = (highest >> 8) & 0xFF;
-    int highestG = highest & 0xFF;
-
-    int lowestA = (lowest >> 24) & 0xFF;
-    int lowestR = (lowest >> 16) & 0xFF;
-    int lowestB = (lowest >> 8) & 0xFF;
-    int lowestG = lowest & 0xFF;
-
-    int middleA = (middle >> 24) & 0xFF;
-    int middleR = (middle >> 16) & 0xFF;
-    int middleB = (middle >> 8) & 0xFF;
-    int middleG = middle & 0xFF;
-
-    // Compile intermediate colors by averaging in each band
-
-    int lowMixA = (middleA + lowestA) / 2;
-    int lowMixR = (middleR + lowestR) / 2;
-    int lowMixG = (middleG + lowestG) / 2;
-    int lowMixB = (middleB + lowestB) / 2;
-
-    int highMixA = (middleA + highestA) / 2;
-    int highMixR = (middleR + highestR) / 2;
-    int highMixG = (middleG + highestG) / 2;
-    int highMixB = (middleB + highestB) / 2;
-
-    // Compile intermediate colors
-
-    int lowMix = lowMixA << 24 | lowMixR << 16 | lowMixB << 8 | lowMixG;
-    int highMix = highMixA << 24 | highMixR << 16 | highMixB << 8 | highMixG;
-
-    // For storing the color for each quadrant's corner
-    int upperLeft;
-    int upperRight;
-    int lowerRight;
-    int lowerLeft;
-
-    // Weight factor for each quadrant corner's color (closer to corner, more of that color)
-    float xWeight;
-    float yWeight;
-
-    // Divide colors by quadrant and pick one based on importance and urgency, assign colors
-    if (importance > 50) {
-      yWeight = (importance - 50) / (float) 50;
-      if (urgency > 50) {
-        xWeight = (urgency - 50) / (float) 50;
-        upperLeft = highest;
-        upperRight = highMix;
-        lowerRight = middle;
-        lowerLeft = highMix;
-      } else {
-        xWeight = urgency / (float) 50;
-        upperLeft = highMix;
-        upperRight = middle;
-        lowerRight = lowMix;
-        lowerLeft = middle;
-      }
-    } else {
-      yWeight = importance / (float) 50;
-      if (urgency < 50) {
-        xWeight = urgency / (float) 50;
-        upperLeft = middle;
-        upperRight = lowMix;
-        lowerRight = lowest;
-        lowerLeft = lowMix;
-      } else {
-        xWeight = (urgency - 50) / (float) 50;
-        upperLeft = highMix;
-        upperRight = middle;
-        lowerRight = lowMix;
-        lowerLeft = middle;
+  // Draw the group's tasks in the rows that are on screen (and inside the area being re-drawn)
+  @Override
+  protected void onDraw(Canvas canvas) {
+    if (taskGroup != null) {
+      canvas.getClipBounds(clipBounds);
+      int last = min(tasks.size() - 1, getRow(clipBounds.bottom));
+      for (int row = max(0, getRow(clipBounds.top)); row <= last; row++) {
+        float baseline = getRowTop(row) + padding - fontTop;
+        drawTask(
+            canvas, tasks.get(row), baseline, padding, padding + checkBoxSide + spacing, 1, false);
       }
     }
+  }
 
-    // Given quadrant, apply two-factor weight to the color of each corner to get final color
-
-    int resultA =
-        (int)
-            (Color.alpha(upperLeft) * (yWeight * xWeight)
-                + Color.alpha(lowerRight) * (1 - xWeight) * (1 - yWeight)
-                + Color.alpha(upperRight) * yWeight * (1 - xWeight)
-                + Color.alpha(lowerLeft) * (1 - yWeight) * xWeight);
-
-    int resultR =
-        (int)
-            (Color.red(upperLeft) * (yWeight * xWeight)
-                + Color.red(lowerRight) * (1 - xWeight) * (1 - yWeight)
-                + Color.red(upperRight) * yWeight * (1 - xWeight)
-                + Color.red(lowerLeft) * (1 - yWeight) * xWeight);
-
-    int resultG =
-        (int)
-            (Color.green(upperLeft) * (yWeight * xWeight)
-                + Color.green(lowerRight) * (1 - xWeight) * (1 - yWeight)
-                + Color.green(upperRight) * yWeight * (1 - xWeight)
-                + Color.green(lowerLeft) * (1 - yWeight) * xWeight);
-
-    int resultB =
-        (int)
-            (Color.blue(upperLeft) * (yWeight * xWeight)
-                + Color.blue(lowerRight) * (1 - xWeight) * (1 - yWeight)
-                + Color.blue(upperRight) * yWeight * (1 - xWeight)
-                + Color.blue(lowerLeft) * (1 - yWeight) * xWeight);
-
-    // Compile color and return result
-    return resultA << 24 | resultR << 16 | resultG << 8 | resultB;
+  // Return a task after touching an area (worked out from the row touched)
+  public Task getTouchedTask(float x, float y) {
+    int row = getRow(y);
+    if (x >= 0 && x < widthPopup && row >= 0 && row < tasks.size()) {
+      return tasks.get(row);
+    }
+    return null; // nothing hit if you've made it this far
   }
 }
@@ -2,11 +2,14 @@ package com.rsquared.taskmaster;
 
 import android.annotation.SuppressLint;
 import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
@@ -27,18 +30,27 @@ public class MainActivity extends AppCompatActivity {
 
   // To track which fragments are visible
   private boolean fragmentAddOrEdit = false;
+  // Number of screens shown so far (so the task canvas is only added to the screen it was for)
+  private int screenCount = 0;
 
   @SuppressLint("ClickableViewAccessibility")
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    if (savedInstanceState == null) {
+      StartupTimer.start(); // (not when made again, such as after rotating)
+    }
     setContentView(R.layout.activity_main);
+    ColorTable.invalidate(); // the activity is made again after a change of theme
+    DragShadowCache.clear();
 
     // taskViewModel holds task information between views, activities, etc.
     TaskViewModel taskViewModel = new ViewModelProvider(this).get(TaskViewModel.class);
 
-    // Get all the unfinished tasks for display
+    // Get all the unfinished tasks for display (in the background: the task canvas shows them as
+    // they arrive)
     taskViewModel.downloadIncompleteTasks();
+    runAfterNextFrame(StartupTimer::firstFrameDrawn);
   }
 
   @Override
@@ -66,16 +78,34 @@ public class MainActivity extends AppCompatActivity {
             });
   }
 
+  // Make sure every change is saved before the app may be killed (and say so if it could not be)
+  @Override
+  protected void onStop() {
+    if (!new ViewModelProvider(this).get(TaskViewModel.class).flushWrites()) {
+      Toast.makeText(this, R.string.changes_not_saved, Toast.LENGTH_LONG).show();
+    }
+    super.onStop();
+  }
+
+  // Work out the gradient colors and drag shadows again for the (possibly) new theme
+  @Override
+  public void onConfigurationChanged(@NotNull Configuration newConfig) {
+    super.onConfigurationChanged(newConfig);
+    ColorTable.invalidate();
+    DragShadowCache.clear();
+  }
+
   // FRAGMENT CONTROL METHODS
 
-  // Show the "home" screen: task graphics, instructions, and button for adding/editing tasks
+  // Show the "home" screen: task graphics, instructions, and button for adding/editing tasks.  The
+  // simple fragments go first, so they are on screen straight away, and the task canvas (above
+  // them) is added once they have been drawn.
   public void showHome() {
 
     // Prepare transaction by clearing activity of frames and creating new ones
     FragmentTransaction fragmentTransaction = prepareTransaction();
 
     // Create new fragment instances
-    FragmentTaskDraw fragmentTaskDraw = FragmentTaskDraw.newInstance();
     FragmentAddButton fragmentAddButton = FragmentAddButton.newInstance();
     FragmentInstructions fragmentInstructions = FragmentInstructions.newInstance();
     FragmentCalvinQuote fragmentCalvinQuote = FragmentCalvinQuote.newInstance();
@@ -84,7 +114,21 @@ public class MainActivity extends AppCompatActivity {
     fragmentAddOrEdit = false;
 
     finalizeTransaction(
-        fragmentTransaction, fragmentTaskDraw, fragmentAddButton, fragmentInstructions, fragmentCalvinQuote);
+        fragmentTransaction, fragmentAddButton, fragmentInstructions, fragmentCalvinQuote);
+
+    // Then the task canvas, unless another screen has been shown in the meantime (or the activity
+    // is being stopped, in which case it is shown again when started)
+    int homeScreen = screenCount;
+    runAfterNextFrame(
+        () -> {
+          FragmentManager fragmentManager = getSupportFragmentManager();
+          if (screenCount == homeScreen && !fragmentManager.isStateSaved()) {
+            fragmentManager
+                .beginTransaction()
+                .add(R.id.frame_layout_task_draw, FragmentTaskDraw.newInstance())
+                .commit();
+          }
+        });
   }
 
   // Bring up a screen for a new task
@@ -150,6 +194,8 @@ public class MainActivity extends AppCompatActivity {
 
   // Create transaction for the above methods
   private @NotNull FragmentTransaction prepareTransaction() {
+    screenCount++;
+    ((ViewGroup) findViewById(R.id.frame_layout_task_draw)).removeAllViews();
     ((ViewGroup) findViewById(R.id.linear_layout_placeholder)).removeAllViews();
     FragmentManager fragmentManager = Objects.requireNonNull(getSupportFragmentManager());
     return fragmentManager.beginTransaction();
@@ -164,6 +210,21 @@ public class MainActivity extends AppCompatActivity {
     fragmentTransaction.commit();
   }
 
+  // Run something once the next frame has been drawn
+  private void runAfterNextFrame(@NotNull Runnable runnable) {
+    View root = findViewById(R.id.linear_layout_activity_main);
+    ViewTreeObserver.OnPreDrawListener preDrawListener =
+        new ViewTreeObserver.OnPreDrawListener() {
+          @Override
+          public boolean onPreDraw() {
+            root.getViewTreeObserver().removeOnPreDrawListener(this);
+            root.post(runnable); // (runs once the frame about to be drawn is done)
+            return true;
+          }
+        };
+    root.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+  }
+
   // Swap rotation between landscape and portrait, or none
   // Taken from: https://stackoverflow.com/a/18268446
   @SuppressLint({"SourceLockedOrientationActivity", "SwitchIntDef"})
@@ -0,0 +1,57 @@
+package com.rsquared.taskmaster;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Times how long the app takes to start: from the main activity being created to its first frame
+// on screen, and to the first frame that shows every task loaded from the database.  Each time is
+// logged (under the tag below) once, and kept so it can be checked later.  Only used from the user
+// interface thread.
+public final class StartupTimer {
+
+  // PRIVATE MEMBERS
+
+  private static final String tag = "StartupTimer";
+
+  // Times in milliseconds (-1 until known)
+  private static long startMillis = -1;
+  private static long timeToFirstFrame = -1;
+  private static long timeToFullyLoaded = -1;
+
+  private StartupTimer() {}
+
+  // SETTER FUNCTIONS
+
+  // Start timing (when the main activity is first created)
+  public static void start() {
+    startMillis = SystemClock.uptimeMillis();
+    timeToFirstFrame = -1;
+    timeToFullyLoaded = -1;
+  }
+
+  // The first frame has been drawn (only the first report after start() counts)
+  public static void firstFrameDrawn() {
+    if (startMillis >= 0 && timeToFirstFrame < 0) {
+      timeToFirstFrame = SystemClock.uptimeMillis() - startMillis;
+      Log.i(tag, "time to first frame: " + timeToFirstFrame + " ms");
+    }
+  }
+
+  // Every task has been loaded and drawn (only the first report after start() counts)
+  public static void fullyLoaded() {
+    if (startMillis >= 0 && timeToFullyLoaded < 0) {
+      timeToFullyLoaded = SystemClock.uptimeMillis() - startMillis;
+      Log.i(tag, "time to fully loaded: " + timeToFullyLoaded + " ms");
+    }
+  }
+
+  // GETTER FUNCTIONS
+
+  public static long getTimeToFirstFrame() {
+    return timeToFirstFrame;
+  }
+
+  public static long getTimeToFullyLoaded() {
+    return timeToFullyLoaded;
+  }
+}
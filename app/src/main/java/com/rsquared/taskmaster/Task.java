@@ -58,7 +58,7 @@ public class Task implements Parcelable {
     }
   };
 
-  private void setID(long newID) {
+  public void setID(long newID) {
     this._id = newID;
   }
 
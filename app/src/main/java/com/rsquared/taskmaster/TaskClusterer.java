@@ -0,0 +1,224 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Rect;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Finds the groups of tasks whose touch areas overlap, directly or through other tasks, using a
+// disjoint-set (union-find) over the tasks' positions in the arrays handed to cluster().  A group
+// also takes in any task that overlaps the group's own graphic ("N tasks" at the average
+// position), which is only re-checked when that graphic grows past the area already checked.
+public class TaskClusterer {
+
+  // PRIVATE MEMBERS
+
+  // A group's graphic moves as it takes in tasks, so it is re-checked a bounded number of times
+  private static final int maxGrowthPasses = 4;
+
+  private final TaskGeometry geometry; // computes group graphics from label, urgency and importance
+
+  // Disjoint-set forest, with running totals kept at each root
+  private int[] parents;
+  private int[] sizes;
+  private int[] urgencySums;
+  private int[] importanceSums;
+
+  // Group graphics for each root, and the largest area each root has already been checked against
+  private TaskGraphic[] groupGraphics;
+  private Rect[] checkedAreas;
+
+  // CONSTRUCTOR
+
+  public TaskClusterer(@NotNull TaskGeometry geometry) {
+    this.geometry = geometry;
+  }
+
+  // CLUSTERING
+
+  // Group the given tasks (each with its values, and its graphic at those values found at the
+  // matching index in the buffer) and return the groups found, each with its graphic set.  Tasks
+  // that are not returned in a group overlap nothing.
+  public @NotNull List<TaskGroup> cluster(
+      @NotNull TaskLayout.TaskState[] states,
+      @NotNull TaskGraphicBuffer taskGraphics,
+      int @NotNull [] indices) {
+    int numTasks = states.length;
+    reset(numTasks);
+
+    // Index every task's touch area
+    TaskGrid taskGrid =
+        new TaskGrid(geometry.getWidth(), geometry.getHeight(), geometry.getGridCellSize());
+    for (int i = 0; i < numTasks; i++) {
+      urgencySums[i] = states[i].urgency;
+      importanceSums[i] = states[i].importance;
+      int index = indices[i];
+      taskGrid.insert(
+          i,
+          taskGraphics.getLeft(index),
+          taskGraphics.getTop(index),
+          taskGraphics.getRight(index),
+          taskGraphics.getBottom(index));
+    }
+    TaskGrid.Hits hits = new TaskGrid.Hits();
+
+    // One sweep joins every pair of overlapping tasks (and so, transitively, every chain of them)
+    for (int i = 0; i < numTasks; i++) {
+      int index = indices[i];
+      taskGrid.query(
+          taskGraphics.getLeft(index),
+          taskGraphics.getTop(index),
+          taskGraphics.getRight(index),
+          taskGraphics.getBottom(index),
+          hits);
+      for (int h = 0; h < hits.size(); h++) {
+        int j = hits.get(h);
+        if (j > i) {
+          union(i, j);
+        }
+      }
+    }
+
+    // Check every group's graphic against the tasks, and keep re-checking groups that took in
+    // more tasks until nothing changes (or the pass limit is reached)
+    int[] pending = new int[numTasks];
+    int numPending = 0;
+    for (int i = 0; i < numTasks; i++) {
+      if (parents[i] == i && sizes[i] > 1) {
+        pending[numPending++] = i;
+      }
+    }
+    int[] next = new int[numTasks];
+    boolean[] queued = new boolean[numTasks];
+    for (int pass = 0; pass < maxGrowthPasses && numPending > 0; pass++) {
+      int numNext = 0;
+      for (int p = 0; p < numPending; p++) {
+        int root = find(pending[p]);
+        Rect groupArea = getGroupGraphic(root).getTouchArea();
+        if (checkedAreas[root] != null && contains(checkedAreas[root], groupArea)) {
+          continue; // nothing new to look at
+        }
+        checkedAreas[root] = new Rect(groupArea);
+
+        // Take in every task under the group's graphic
+        taskGrid.query(groupArea, hits);
+        for (int h = 0; h < hits.size(); h++) {
+          root = union(root, hits.get(h));
+        }
+
+        // If the group changed, its graphic did too, so look again on the next pass
+        if (getGroupGraphic(root).getTouchArea() != groupArea && !queued[root]) {
+          queued[root] = true;
+          next[numNext++] = root;
+        }
+      }
+      int[] swap = pending;
+      pending = next;
+      next = swap;
+      numPending = numNext;
+      Arrays.fill(queued, false);
+    }
+
+    // Gather the members of each group
+    int[] groupIndices = new int[numTasks];
+    Arrays.fill(groupIndices, -1);
+    List<List<TaskLayout.TaskState>> members = new ArrayList<>();
+    List<Integer> roots = new ArrayList<>();
+    for (int i = 0; i < numTasks; i++) {
+      int root = find(i);
+      if (sizes[root] > 1) {
+        if (groupIndices[root] < 0) {
+          groupIndices[root] = members.size();
+          members.add(new ArrayList<>(sizes[root]));
+          roots.add(root);
+        }
+        members.get(groupIndices[root]).add(states[i]);
+      }
+    }
+
+    // Sort each group into the order of its tasks
+    List<TaskGroup> taskGroups = new ArrayList<>(members.size());
+    for (int g = 0; g < members.size(); g++) {
+      List<TaskLayout.TaskState> groupStates = members.get(g);
+      Collections.sort(groupStates, TaskGroup.taskOrder);
+      int root = roots.get(g);
+      TaskGroup taskGroup = new TaskGroup(groupStates);
+      taskGroup.setTaskGraphic(getGroupGraphic(root));
+      taskGroups.add(taskGroup);
+    }
+    return taskGroups;
+  }
+
+  // DISJOINT-SET METHODS
+
+  private void reset(int numTasks) {
+    parents = new int[numTasks];
+    sizes = new int[numTasks];
+    urgencySums = new int[numTasks];
+    importanceSums = new int[numTasks];
+    groupGraphics = new TaskGraphic[numTasks];
+    checkedAreas = new Rect[numTasks];
+    for (int i = 0; i < numTasks; i++) {
+      parents[i] = i;
+      sizes[i] = 1;
+    }
+  }
+
+  // Find the root of a task's set (halving the path along the way)
+  private int find(int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  // Join the sets of two tasks (the smaller under the larger) and return the resulting root
+  private int union(int a, int b) {
+    int rootA = find(a);
+    int rootB = find(b);
+    if (rootA == rootB) {
+      return rootA;
+    }
+    if (sizes[rootA] < sizes[rootB]) {
+      int swap = rootA;
+      rootA = rootB;
+      rootB = swap;
+    }
+    parents[rootB] = rootA;
+    sizes[rootA] += sizes[rootB];
+    urgencySums[rootA] += urgencySums[rootB];
+    importanceSums[rootA] += importanceSums[rootB];
+    groupGraphics[rootA] = null; // membership changed, so the graphic must be recomputed
+
+    // Both areas have been searched already, so only an area outside both needs another look
+    if (checkedAreas[rootA] == null
+        || (checkedAreas[rootB] != null && contains(checkedAreas[rootB], checkedAreas[rootA]))) {
+      checkedAreas[rootA] = checkedAreas[rootB];
+    }
+    return rootA;
+  }
+
+  // Graphic of a root's group, the same as TaskDraw.setTaskGroupGraphic() would make for it
+  // (from the same geometry)
+  private @NotNull TaskGraphic getGroupGraphic(int root) {
+    if (groupGraphics[root] == null) {
+      int size = sizes[root];
+      groupGraphics[root] =
+          geometry.makeGraphic(
+              size + " tasks", urgencySums[root] / size, importanceSums[root] / size);
+    }
+    return groupGraphics[root];
+  }
+
+  private static boolean contains(@NotNull Rect outer, @NotNull Rect inner) {
+    return outer.left <= inner.left
+        && outer.top <= inner.top
+        && outer.right >= inner.right
+        && outer.bottom >= inner.bottom;
+  }
+}
@@ -5,13 +5,17 @@ import android.provider.BaseColumns;
 // Defines all the information necessary for the database access
 public final class TaskDatabaseContract {
 
-  // Define basic database information, types, and syntax
-  public static final int DATABASE_VERSION = 1;
+  // Define basic database information, types, and syntax (to change the schema, increment the
+  // version and add the changes as a new step in TaskDatabaseMigrations)
+  public static final int DATABASE_VERSION = 3;
   public static final String DATABASE_NAME = "TaskMaster.db";
   private static final String TEXT_TYPE = " TEXT";
   private static final String INT_TYPE = " INTEGER";
   private static final String COMMA_SEP = ",";
 
+  // The time now, in milliseconds (as System.currentTimeMillis() gives it)
+  private static final String NOW_MILLIS = "CAST(strftime('%s','now') AS INTEGER)*1000";
+
   // To prevent someone from accidentally instantiating the contract class,
   // give it an empty constructor.
   private TaskDatabaseContract() {
@@ -27,6 +31,7 @@ public final class TaskDatabaseContract {
     public static final String COLUMN_NAME_URGENCY = "urgency";
     public static final String COLUMN_NAME_IMPORTANCE = "importance";
     public static final String COLUMN_NAME_COMPLETED = "completed";
+    public static final String COLUMN_NAME_COMPLETED_AT = "completed_at"; // (added in version 3)
 
     // Define table creation query
     public static final String CREATE_TABLE =
@@ -59,6 +64,251 @@ public final class TaskDatabaseContract {
     public static final String QUERY_TABLE_INCOMPLETE =
         "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_NAME_COMPLETED + "=0";
 
+    // Get a page of tasks, with only the columns a task is made from, picking up after the last
+    // task of the previous page (rather than skipping over what was already read).  All tasks come
+    // in order of ID: those after the first parameter, up to a number of them (the second).
+    // Incomplete tasks come in the order of their index (urgency, importance, then ID), so each
+    // page is read straight from it: those after the urgency, importance and ID given as the first
+    // three parameters, up to a number of them (the fourth).
+    private static final String QUERY_COLUMNS =
+        "SELECT "
+            + _ID
+            + COMMA_SEP
+            + COLUMN_NAME_TASK
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED
+            + " FROM "
+            + TABLE_NAME;
+    public static final String QUERY_PAGE =
+        QUERY_COLUMNS + " WHERE " + _ID + ">? ORDER BY " + _ID + " LIMIT ?";
+    public static final String QUERY_PAGE_INCOMPLETE =
+        QUERY_COLUMNS
+            + " WHERE "
+            + COLUMN_NAME_COMPLETED
+            + "=0 AND "
+            + COLUMN_NAME_URGENCY
+            + ">=?1 AND ("
+            + COLUMN_NAME_URGENCY
+            + ">?1 OR "
+            + COLUMN_NAME_IMPORTANCE
+            + ">?2 OR ("
+            + COLUMN_NAME_IMPORTANCE
+            + "=?2 AND "
+            + _ID
+            + ">?3)) ORDER BY "
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + COMMA_SEP
+            + _ID
+            + " LIMIT ?4";
+
     public static final String ID_CLAUSE = _ID + "=?";
+
+    // Add a task, or update one by its id (compiled once per batch, then bound for each task).
+    // The fourth parameter (completed) also sets when the task was completed: the time it was
+    // first saved as completed, or null while it is not.
+    public static final String INSERT_TASK =
+        "INSERT INTO "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_TASK
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED_AT
+            + ") VALUES (?,?,?,?,CASE WHEN ?4=0 THEN NULL ELSE "
+            + NOW_MILLIS
+            + " END)";
+    public static final String UPDATE_TASK =
+        "UPDATE "
+            + TABLE_NAME
+            + " SET "
+            + COLUMN_NAME_TASK
+            + "=?,"
+            + COLUMN_NAME_URGENCY
+            + "=?,"
+            + COLUMN_NAME_IMPORTANCE
+            + "=?,"
+            + COLUMN_NAME_COMPLETED
+            + "=?,"
+            + COLUMN_NAME_COMPLETED_AT
+            + "=CASE WHEN ?4=0 THEN NULL ELSE COALESCE("
+            + COLUMN_NAME_COMPLETED_AT
+            + COMMA_SEP
+            + NOW_MILLIS
+            + ") END WHERE "
+            + ID_CLAUSE; // (the id is the fifth parameter)
+
+    // Define indexes (added in version 2).  Incomplete tasks are looked up through an index of
+    // only those tasks, where SQLite supports partial indexes (3.8.0, so Android 5.0 and up), or
+    // otherwise an index that starts with the completed column.  Either way, it is ordered by
+    // urgency then importance, for range queries over incomplete tasks.
+    public static final String INDEX_INCOMPLETE = TABLE_NAME + "_incomplete";
+    public static final String INDEX_URGENCY = TABLE_NAME + "_" + COLUMN_NAME_URGENCY;
+    public static final String INDEX_IMPORTANCE = TABLE_NAME + "_" + COLUMN_NAME_IMPORTANCE;
+    public static final String CREATE_INDEX_INCOMPLETE_PARTIAL =
+        "CREATE INDEX IF NOT EXISTS "
+            + INDEX_INCOMPLETE
+            + " ON "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + ") WHERE "
+            + COLUMN_NAME_COMPLETED
+            + "=0";
+    public static final String CREATE_INDEX_INCOMPLETE_COMPOSITE =
+        "CREATE INDEX IF NOT EXISTS "
+            + INDEX_INCOMPLETE
+            + " ON "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_COMPLETED
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + ")";
+    public static final String CREATE_INDEX_URGENCY =
+        "CREATE INDEX IF NOT EXISTS "
+            + INDEX_URGENCY
+            + " ON "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_URGENCY
+            + ")";
+    public static final String CREATE_INDEX_IMPORTANCE =
+        "CREATE INDEX IF NOT EXISTS "
+            + INDEX_IMPORTANCE
+            + " ON "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_IMPORTANCE
+            + ")";
+
+    // Define when tasks were completed (added in version 3), starting from the upgrade for tasks
+    // that were already completed, and index it to find the tasks to archive
+    public static final String ADD_COLUMN_COMPLETED_AT =
+        "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_NAME_COMPLETED_AT + INT_TYPE;
+    public static final String STAMP_COMPLETED_TASKS =
+        "UPDATE "
+            + TABLE_NAME
+            + " SET "
+            + COLUMN_NAME_COMPLETED_AT
+            + "="
+            + NOW_MILLIS
+            + " WHERE "
+            + COLUMN_NAME_COMPLETED
+            + "<>0";
+    public static final String INDEX_COMPLETED_AT = TABLE_NAME + "_" + COLUMN_NAME_COMPLETED_AT;
+    public static final String CREATE_INDEX_COMPLETED_AT =
+        "CREATE INDEX IF NOT EXISTS "
+            + INDEX_COMPLETED_AT
+            + " ON "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_COMPLETED_AT
+            + ")";
+  }
+
+  // Inner class to define the archive (added in version 3): tasks completed long ago, moved out of
+  // the tasks table so that it stays small, and only read a page at a time when asked for.
+  // Archived tasks are numbered in the order they were archived (oldest completed first).
+  public abstract static class ArchiveTable implements BaseColumns {
+
+    // Define table and column names (the same as in the tasks table)
+    public static final String TABLE_NAME = "archived_tasks";
+    public static final String COLUMN_NAME_TASK = Table.COLUMN_NAME_TASK;
+    public static final String COLUMN_NAME_URGENCY = Table.COLUMN_NAME_URGENCY;
+    public static final String COLUMN_NAME_IMPORTANCE = Table.COLUMN_NAME_IMPORTANCE;
+    public static final String COLUMN_NAME_COMPLETED_AT = Table.COLUMN_NAME_COMPLETED_AT;
+
+    // Define table creation and destruction queries
+    public static final String CREATE_TABLE =
+        "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + _ID
+            + INT_TYPE
+            + " PRIMARY KEY,"
+            + COLUMN_NAME_TASK
+            + TEXT_TYPE
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + INT_TYPE
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + INT_TYPE
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED_AT
+            + INT_TYPE
+            + " )";
+    public static final String DROP_TABLE = "DROP TABLE IF EXISTS " + TABLE_NAME;
+
+    // Tasks completed before a time (the first parameter; tasks not completed have no time), oldest
+    // first, up to a number of them (the second parameter)
+    private static final String ARCHIVABLE_TASKS =
+        " FROM "
+            + Table.TABLE_NAME
+            + " WHERE "
+            + COLUMN_NAME_COMPLETED_AT
+            + "<? ORDER BY "
+            + COLUMN_NAME_COMPLETED_AT
+            + COMMA_SEP
+            + _ID
+            + " LIMIT ?";
+
+    // Copy a batch of tasks completed before a time into the archive, then delete the same batch
+    // from the tasks table (both in one transaction, bound to the same time and number of tasks)
+    public static final String ARCHIVE_TASKS =
+        "INSERT INTO "
+            + TABLE_NAME
+            + " ("
+            + COLUMN_NAME_TASK
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED_AT
+            + ") SELECT "
+            + COLUMN_NAME_TASK
+            + COMMA_SEP
+            + COLUMN_NAME_URGENCY
+            + COMMA_SEP
+            + COLUMN_NAME_IMPORTANCE
+            + COMMA_SEP
+            + COLUMN_NAME_COMPLETED_AT
+            + ARCHIVABLE_TASKS;
+    public static final String DELETE_ARCHIVED_TASKS =
+        "DELETE FROM "
+            + Table.TABLE_NAME
+            + " WHERE "
+            + _ID
+            + " IN (SELECT "
+            + _ID
+            + ARCHIVABLE_TASKS
+            + ")";
+
+    // Get a page of archived tasks, most recently archived first: those numbered below the first
+    // parameter, up to a number of them (the second parameter)
+    public static final String QUERY_PAGE =
+        "SELECT * FROM "
+            + TABLE_NAME
+            + " WHERE "
+            + _ID
+            + "<? ORDER BY "
+            + _ID
+            + " DESC LIMIT ?";
   }
 }
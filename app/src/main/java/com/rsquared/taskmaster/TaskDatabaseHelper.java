@@ -9,17 +9,23 @@ import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_TAS
 import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_URGENCY;
 import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_TABLE;
 import static com.rsquared.taskmaster.TaskDatabaseContract.Table.DROP_TABLE;
-import static com.rsquared.taskmaster.TaskDatabaseContract.Table.ID_CLAUSE;
-import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_TABLE;
-import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_TABLE_INCOMPLETE;
-import static com.rsquared.taskmaster.TaskDatabaseContract.Table.TABLE_NAME;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INSERT_TASK;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_PAGE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_PAGE_INCOMPLETE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.UPDATE_TASK;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import com.rsquared.taskmaster.TaskDatabaseContract.ArchiveTable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.jetbrains.annotations.NotNull;
 
@@ -27,6 +33,9 @@ import org.jetbrains.annotations.NotNull;
 // TaskDatabaseContract
 public class TaskDatabaseHelper extends SQLiteOpenHelper {
 
+  // Number of tasks read at a time by getTasks()
+  private static final int defaultPageSize = 500;
+
   // CONSTRUCTORS
 
   // Use singleton method to provide only one instance of a database helper at a time
@@ -37,6 +46,11 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper {
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
   }
 
+  // A database under another name (for tests, which must not touch the user's tasks)
+  TaskDatabaseHelper(Context context, String databaseName) {
+    super(context, databaseName, null, DATABASE_VERSION);
+  }
+
   public static synchronized TaskDatabaseHelper getInstance(Context context) {
     // Use the application context, which will ensure that you don't accidentally leak an Activity's
     // context.
@@ -55,60 +69,146 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper {
 
   // OVER-RIDDEN METHODS
 
+  // (Both run inside a transaction, so a database is either fully migrated or left as it was)
   @Override
   public void onCreate(@NotNull SQLiteDatabase database) {
     database.execSQL(CREATE_TABLE);
+    migrate(database, TaskDatabaseMigrations.FIRST_VERSION, DATABASE_VERSION);
   }
 
   @Override
   public void onUpgrade(@NotNull SQLiteDatabase database, int oldVersion, int newVersion) {
-    // This database is only a cache for online data, so its upgrade policy is
-    // to simply to discard the data and start over
-    dropTable();
-    onCreate(database);
+    migrate(database, oldVersion, newVersion);
   }
 
+  // A database from a newer version of the app can't be understood, so it is discarded and
+  // started over
   @Override
   public void onDowngrade(SQLiteDatabase database, int oldVersion, int newVersion) {
-    onUpgrade(database, oldVersion, newVersion);
+    database.execSQL(DROP_TABLE);
+    database.execSQL(ArchiveTable.DROP_TABLE);
+    onCreate(database);
+  }
+
+  // Run each migration step from one version to the other, keeping the data
+  private static void migrate(@NotNull SQLiteDatabase database, int fromVersion, int toVersion) {
+    // Partial indexes need SQLite 3.8.0, first shipped with Android 5.0
+    boolean partialIndexesSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    for (String statement :
+        TaskDatabaseMigrations.getStatements(fromVersion, toVersion, partialIndexesSupported)) {
+      database.execSQL(statement);
+    }
   }
 
   // GETTER METHODS
 
-  // Retrieve all tasks from the database that have yet to be completed
+  // Retrieve all tasks from the database (or only those that have yet to be completed)
   public Set<Task> getTasks(boolean incompleteTasksOnly) {
+    Set<Task> tasks = new HashSet<>();
+    loadTasks(incompleteTasksOnly, defaultPageSize, (page, lastPage) -> tasks.addAll(page));
+    return tasks;
+  }
 
-    // Get database
-    SQLiteDatabase database = getReadableDatabase();
+  // Read tasks (all of them, or only those that have yet to be completed) a page at a time, handing
+  // each page to the listener as soon as it is read, so the first tasks can be shown while the
+  // rest are still loading.  The listener is called on this thread, ending with a page (possibly
+  // empty) marked as the last.
+  public void loadTasks(
+      boolean incompleteTasksOnly, int pageSize, @NotNull TaskPageListener listener) {
+    Task after = null;
+    boolean lastPage = false;
+    while (!lastPage) {
+      List<Task> page = loadTaskPage(incompleteTasksOnly, after, pageSize);
+      lastPage = page.size() < pageSize;
+      if (!lastPage) {
+        after = page.get(page.size() - 1);
+      }
+      listener.onTasksLoaded(page, lastPage);
+    }
+  }
 
-    // Initialize task list return object
-    Set<Task> tasks = new HashSet<>();
+  // Read one page of tasks (all of them, or only those that have yet to be completed), starting
+  // after the given task (the last one of the previous page), or from the start if that is null.
+  // Each page is a short query of its own (see TaskDatabaseContract.Table.QUERY_PAGE), so pages
+  // can be read as separate pieces of work; fewer tasks than asked for means it is the last page.
+  @NotNull
+  public List<Task> loadTaskPage(boolean incompleteTasksOnly, Task after, int pageSize) {
 
-    // Set up query (either all tasks are downloaded or only incomplete tasks)
-    Cursor cursor;
+    // Pick up after the given task (incomplete tasks are paged by urgency, importance, then ID)
+    String query = incompleteTasksOnly ? QUERY_PAGE_INCOMPLETE : QUERY_PAGE;
+    String[] arguments;
     if (incompleteTasksOnly) {
-      cursor = database.rawQuery(QUERY_TABLE_INCOMPLETE, null);
+      arguments =
+          after == null
+              ? new String[] {
+                Integer.toString(Integer.MIN_VALUE),
+                Integer.toString(Integer.MIN_VALUE),
+                Long.toString(Long.MIN_VALUE),
+                Integer.toString(pageSize)
+              }
+              : new String[] {
+                Integer.toString(after.getUrgency()),
+                Integer.toString(after.getImportance()),
+                Long.toString(after.getID()),
+                Integer.toString(pageSize)
+              };
     } else {
-      cursor = database.rawQuery(QUERY_TABLE, null);
+      long afterID = after == null ? Long.MIN_VALUE : after.getID();
+      arguments = new String[] {Long.toString(afterID), Integer.toString(pageSize)};
     }
 
-    // Pull information from database and store
-    if (cursor.moveToFirst()) {
-      while (!cursor.isAfterLast()) {
-        long id = cursor.getLong(cursor.getColumnIndexOrThrow(_ID));
-        String taskName = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME_TASK));
-        int urgency = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_NAME_URGENCY));
-        int importance = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_NAME_IMPORTANCE));
-        boolean completed = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_NAME_COMPLETED)) >= 1;
-        tasks.add(new Task(id, taskName, urgency, importance, completed));
-        cursor.moveToNext();
+    List<Task> page = new ArrayList<>(pageSize);
+    Cursor cursor = getReadableDatabase().rawQuery(query, arguments);
+    try {
+      int idColumn = cursor.getColumnIndexOrThrow(_ID);
+      int taskColumn = cursor.getColumnIndexOrThrow(COLUMN_NAME_TASK);
+      int urgencyColumn = cursor.getColumnIndexOrThrow(COLUMN_NAME_URGENCY);
+      int importanceColumn = cursor.getColumnIndexOrThrow(COLUMN_NAME_IMPORTANCE);
+      int completedColumn = cursor.getColumnIndexOrThrow(COLUMN_NAME_COMPLETED);
+      while (cursor.moveToNext()) {
+        page.add(
+            new Task(
+                cursor.getLong(idColumn),
+                cursor.getString(taskColumn),
+                cursor.getInt(urgencyColumn),
+                cursor.getInt(importanceColumn),
+                cursor.getInt(completedColumn) >= 1));
       }
+    } finally {
+      cursor.close();
     }
+    return page;
+  }
 
-    // Close database connection
-    cursor.close();
-
-    // Return query results
+  // Retrieve a page of archived tasks, most recently archived first, starting after the given
+  // archived task (the last one of the previous page), or from the start if that is null.
+  // Archived tasks are all completed, and their IDs are their place in the archive (not their IDs
+  // from before they were archived).
+  public List<Task> getArchivedTasks(Task after, int pageSize) {
+    long beforeID = after == null ? Long.MAX_VALUE : after.getID();
+    List<Task> tasks = new ArrayList<>(pageSize);
+    Cursor cursor =
+        getReadableDatabase()
+            .rawQuery(
+                ArchiveTable.QUERY_PAGE,
+                new String[] {Long.toString(beforeID), Integer.toString(pageSize)});
+    try {
+      int idColumn = cursor.getColumnIndexOrThrow(ArchiveTable._ID);
+      int taskColumn = cursor.getColumnIndexOrThrow(ArchiveTable.COLUMN_NAME_TASK);
+      int urgencyColumn = cursor.getColumnIndexOrThrow(ArchiveTable.COLUMN_NAME_URGENCY);
+      int importanceColumn = cursor.getColumnIndexOrThrow(ArchiveTable.COLUMN_NAME_IMPORTANCE);
+      while (cursor.moveToNext()) {
+        tasks.add(
+            new Task(
+                cursor.getLong(idColumn),
+                cursor.getString(taskColumn),
+                cursor.getInt(urgencyColumn),
+                cursor.getInt(importanceColumn),
+                true));
+      }
+    } finally {
+      cursor.close();
+    }
     return tasks;
   }
 
@@ -120,15 +220,78 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper {
     // Get the database
     SQLiteDatabase database = getWritableDatabase();
 
-    // Create insert entries
-    ContentValues values = new ContentValues();
-    values.put(COLUMN_NAME_TASK, newTask.getLabel());
-    values.put(COLUMN_NAME_URGENCY, newTask.getUrgency());
-    values.put(COLUMN_NAME_IMPORTANCE, newTask.getImportance());
-    values.put(COLUMN_NAME_COMPLETED, newTask.getCompleted());
+    // Insert the new row (the same statement as in batches, so the completion time is set too)
+    database.execSQL(
+        INSERT_TASK,
+        new Object[] {
+          newTask.getLabel(),
+          newTask.getUrgency(),
+          newTask.getImportance(),
+          newTask.getCompleted() ? 1 : 0
+        });
+  }
 
-    // Insert the new row, returning the primary key value of the new row
-	  database.insert(TABLE_NAME, null, values);
+  // Add many tasks at once, in one transaction (all of them are saved, or none are)
+  public void addTasks(@NotNull Collection<Task> newTasks) {
+    writeTasks(newTasks, Collections.<Task>emptyList());
+  }
+
+  // Update many tasks at once, in one transaction
+  public void updateTasks(@NotNull Collection<Task> tasks) {
+    writeTasks(Collections.<Task>emptyList(), tasks);
+  }
+
+  // Add and update tasks together in one transaction, binding each task to statements compiled
+  // once for the whole batch (rather than building ContentValues and SQL for every row).  Returns
+  // the row IDs of the new tasks, in order.
+  @NotNull
+  public long[] writeTasks(
+      @NotNull Collection<Task> newTasks, @NotNull Collection<Task> changedTasks) {
+    long[] newIDs = new long[newTasks.size()];
+    SQLiteDatabase database = getWritableDatabase();
+    database.beginTransaction();
+    try {
+      if (!newTasks.isEmpty()) {
+        SQLiteStatement insert = database.compileStatement(INSERT_TASK);
+        try {
+          int i = 0;
+          for (Task newTask : newTasks) {
+            bindTask(insert, newTask);
+            newIDs[i++] = insert.executeInsert();
+          }
+        } finally {
+          insert.close();
+        }
+      }
+      if (!changedTasks.isEmpty()) {
+        SQLiteStatement update = database.compileStatement(UPDATE_TASK);
+        try {
+          for (Task task : changedTasks) {
+            bindTask(update, task);
+            update.bindLong(5, task.getID());
+            update.executeUpdateDelete();
+          }
+        } finally {
+          update.close();
+        }
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+    return newIDs;
+  }
+
+  // Bind a task's values to the first four parameters of INSERT_TASK or UPDATE_TASK
+  private static void bindTask(@NotNull SQLiteStatement statement, @NotNull Task task) {
+    if (task.getLabel() == null) {
+      statement.bindNull(1);
+    } else {
+      statement.bindString(1, task.getLabel());
+    }
+    statement.bindLong(2, task.getUrgency());
+    statement.bindLong(3, task.getImportance());
+    statement.bindLong(4, task.getCompleted() ? 1 : 0);
   }
 
   // Update a task's information (used to modify task and also mark complete/incomplete
@@ -137,14 +300,51 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper {
     // Get the database
     SQLiteDatabase database = getWritableDatabase();
 
-    // Match fields to new information
-    ContentValues values = new ContentValues();
-    values.put(COLUMN_NAME_TASK, task.getLabel());
-    values.put(COLUMN_NAME_URGENCY, task.getUrgency());
-    values.put(COLUMN_NAME_IMPORTANCE, task.getImportance());
-    values.put(COLUMN_NAME_COMPLETED, task.getCompleted());
+    // Update the database (keeping the time the task was completed, if it already was)
+    database.execSQL(
+        UPDATE_TASK,
+        new Object[] {
+          task.getLabel(),
+          task.getUrgency(),
+          task.getImportance(),
+          task.getCompleted() ? 1 : 0,
+          task.getID()
+        });
+  }
+
+  // Move up to the given number of tasks completed before a time (in milliseconds, as
+  // System.currentTimeMillis() gives it) into the archive, oldest first, in one transaction.
+  // Returns how many were moved (fewer than asked for once there are none left to move).
+  public int archiveCompletedTasks(long completedBefore, int maxTasks) {
+    SQLiteDatabase database = getWritableDatabase();
+    database.beginTransaction();
+    try {
+      SQLiteStatement archive = database.compileStatement(ArchiveTable.ARCHIVE_TASKS);
+      try {
+        archive.bindLong(1, completedBefore);
+        archive.bindLong(2, maxTasks);
+        archive.executeInsert();
+      } finally {
+        archive.close();
+      }
+      int numArchived;
+      SQLiteStatement delete = database.compileStatement(ArchiveTable.DELETE_ARCHIVED_TASKS);
+      try {
+        delete.bindLong(1, completedBefore);
+        delete.bindLong(2, maxTasks);
+        numArchived = delete.executeUpdateDelete();
+      } finally {
+        delete.close();
+      }
+      database.setTransactionSuccessful();
+      return numArchived;
+    } finally {
+      database.endTransaction();
+    }
+  }
 
-    // Update the database
-    database.update(TABLE_NAME, values, ID_CLAUSE, new String[] {Long.toString(task.getID())});
+  // Receives tasks from loadTasks(), a page at a time
+  public interface TaskPageListener {
+    void onTasksLoaded(@NotNull List<Task> page, boolean lastPage);
   }
 }
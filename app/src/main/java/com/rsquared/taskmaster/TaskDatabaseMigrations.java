@@ -0,0 +1,64 @@
+package com.rsquared.taskmaster;
+
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.ADD_COLUMN_COMPLETED_AT;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_INDEX_COMPLETED_AT;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_INDEX_IMPORTANCE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_INDEX_INCOMPLETE_COMPOSITE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_INDEX_INCOMPLETE_PARTIAL;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_INDEX_URGENCY;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.STAMP_COMPLETED_TASKS;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The changes that bring the database from each version of the schema to the next, so that an
+// upgrade keeps the user's tasks instead of starting over.  A new database is made as version 1
+// (TaskDatabaseContract.Table.CREATE_TABLE) and brought up to date the same way, so new and
+// upgraded databases always end up alike.  Only SQL is kept here (nothing from Android), so the
+// steps can be checked against any SQLite.
+public final class TaskDatabaseMigrations {
+
+  // Version of the schema made by CREATE_TABLE
+  public static final int FIRST_VERSION = 1;
+
+  private TaskDatabaseMigrations() {}
+
+  // Statements to run, in order, to bring a database from one version to another (later) one.
+  // Partial indexes are only used if the SQLite running them supports them.
+  @NotNull
+  public static List<String> getStatements(
+      int fromVersion, int toVersion, boolean partialIndexesSupported) {
+    List<String> statements = new ArrayList<>();
+    for (int version = fromVersion + 1; version <= toVersion; version++) {
+      statements.addAll(getStep(version, partialIndexesSupported));
+    }
+    return statements;
+  }
+
+  // Statements that bring a database from the previous version to the given one
+  @NotNull
+  @Contract(pure = true)
+  private static List<String> getStep(int version, boolean partialIndexesSupported) {
+    switch (version) {
+      case 2: // indexes for incomplete tasks, and for ranges of urgency or importance
+        return Arrays.asList(
+            partialIndexesSupported
+                ? CREATE_INDEX_INCOMPLETE_PARTIAL
+                : CREATE_INDEX_INCOMPLETE_COMPOSITE,
+            CREATE_INDEX_URGENCY,
+            CREATE_INDEX_IMPORTANCE);
+      case 3: // when tasks were completed, and the archive of tasks completed long ago
+        return Arrays.asList(
+            ADD_COLUMN_COMPLETED_AT,
+            STAMP_COMPLETED_TASKS,
+            CREATE_INDEX_COMPLETED_AT,
+            TaskDatabaseContract.ArchiveTable.CREATE_TABLE);
+      default:
+        throw new IllegalArgumentException("No migration to database version " + version);
+    }
+  }
+}
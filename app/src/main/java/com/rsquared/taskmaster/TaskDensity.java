@@ -0,0 +1,99 @@
+package com.rsquared.taskmaster;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+// How many tasks are in each tile of a fixed grid over the canvas, drawn instead of the tasks
+// themselves when there are too many in view to lay out or read (see TaskLayoutWorker).  The
+// number of tiles never changes, so drawing this takes the same time however many tasks there
+// are.  Never changed after it has been made.
+public final class TaskDensity {
+
+  // Number of tiles across (and down) the canvas
+  public static final int tilesPerSide = 16;
+
+  // PRIVATE MEMBERS
+
+  private final int width;
+  private final int height;
+  private final int[] counts = new int[tilesPerSide * tilesPerSide]; // row-major
+  private final int[] urgencies = new int[tilesPerSide * tilesPerSide]; // average of each tile
+  private final int[] importances = new int[tilesPerSide * tilesPerSide];
+  private final int maxCount;
+  private final int taskCount;
+
+  // CONSTRUCTOR
+
+  // Count the tasks in view, by the tile their position on the canvas falls in
+  public TaskDensity(
+      @NotNull TaskGeometry geometry, @NotNull Collection<TaskLayout.TaskState> states) {
+    width = geometry.getWidth();
+    height = geometry.getHeight();
+    int count = 0;
+    for (TaskLayout.TaskState state : states) {
+      if (!geometry.isVisible(state.urgency, state.importance)) {
+        continue;
+      }
+      int column = tile(geometry.getPixelX(state.urgency), width);
+      int row = tile(geometry.getPixelY(state.importance), height);
+      int tile = row * tilesPerSide + column;
+      counts[tile]++;
+      urgencies[tile] += state.urgency;
+      importances[tile] += state.importance;
+      count++;
+    }
+    int max = 0;
+    for (int tile = 0; tile < counts.length; tile++) {
+      if (counts[tile] > 0) {
+        urgencies[tile] /= counts[tile];
+        importances[tile] /= counts[tile];
+        max = Math.max(max, counts[tile]);
+      }
+    }
+    maxCount = max;
+    taskCount = count;
+  }
+
+  private static int tile(float position, int size) {
+    if (size <= 0) {
+      return 0;
+    }
+    return Math.max(0, Math.min(tilesPerSide - 1, (int) (position * tilesPerSide / size)));
+  }
+
+  // GETTER FUNCTIONS
+
+  // Number of tasks in view (all tiles together)
+  public int getTaskCount() {
+    return taskCount;
+  }
+
+  // Number of tasks in the fullest tile
+  public int getMaxCount() {
+    return maxCount;
+  }
+
+  // Number of tasks, and their average urgency and importance, in a tile (row * tilesPerSide +
+  // column)
+  public int getCount(int tile) {
+    return counts[tile];
+  }
+
+  public int getUrgency(int tile) {
+    return urgencies[tile];
+  }
+
+  public int getImportance(int tile) {
+    return importances[tile];
+  }
+
+  // Pixel bounds of the tiles in a column or row
+  public int getTileLeft(int column) {
+    return column * width / tilesPerSide;
+  }
+
+  public int getTileTop(int row) {
+    return row * height / tilesPerSide;
+  }
+}
@@ -1,9 +1,11 @@
 package com.rsquared.taskmaster;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
@@ -11,12 +13,6 @@ import android.view.View;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
-import static android.graphics.Rect.intersects;
-
 // Class to perform all graphic operations (drawing on canvas, etc)
 public class TaskDraw extends View {
 
@@ -35,12 +31,25 @@ public class TaskDraw extends View {
   protected static final float arrowLength = 50;
   protected static final float arrowPointLength = 20;
   protected static final float maxNudgeRatio = (float) 0.25; // Only nudge up to 25% importance
+  protected static final float densityTextSize = 24; // height of the counts on a density map
+  protected static final int densityMinAlpha = 64; // opacity of the emptiest occupied tile
+  protected static final long previewBudgetNanos = 4000000; // time for a drop preview per frame
+  protected static final int previewFillColor = 0x40FFFFFF; // faint white
+  protected static final int previewOutlineColor = 0xA0FFFFFF;
   protected static final String labelHorizontal = "URGENCY";
   protected static final String labelVertical = "IMPORTANCE";
   // Paint objects used for drawing on canvas
   protected Paint paintRect;
   protected Paint paintCheckMark;
   protected Paint paintText;
+  protected Paint paintPreviewFill; // where a dragged task would be dropped
+  protected Paint paintPreviewOutline; // where the tasks it would be stacked with would go
+  protected Paint paintDensity; // fill of density map tiles
+  protected Paint paintDensityText; // task counts on density map tiles
+  private final char[] densityCountChars = new char[10]; // digits of a count, without a String
+  // Copy of paintText at another scale (for the drag shadow), made once rather than every draw
+  private Paint paintTextScaled;
+  private float paintTextScale;
 
   // Values for vertical and horizontal labels
   protected Paint paintAxisLabels;
@@ -56,9 +65,36 @@ public class TaskDraw extends View {
   // Canvas dimensions (should be the same -> square)
   protected static float widthCanvas;
   protected static float heightCanvas;
+  // Positioning calculations for the current canvas dimensions (shared with the layout thread)
+  protected static TaskGeometry geometry;
 
   // Store a taskViewModel passed in from MainActivity, because views cannot initiate view models
   private TaskViewModel taskViewModel;
+  // Latest arrangement of the tasks on the canvas (worked out in the background, never changed)
+  private TaskLayoutSnapshot layoutSnapshot;
+  private final TaskLayoutWorker.Listener layoutListener = this::layoutReady;
+  private boolean layoutRequested = false; // a layout has been asked for, and has not arrived yet
+  // Lay the tasks out again as they are loaded, and note when every one of them is first drawn
+  private final TaskViewModel.LoadListener loadListener = this::tasksLoaded;
+  private boolean fullLayoutRequested = false; // layout of every task asked for, not yet here
+  private boolean fullLayoutPublished = false; // ... and here, but not yet drawn
+
+  // Off-screen layers, so an idle redraw is a single bitmap copy: the axes (only redrawn when the
+  // canvas size changes) and the tasks on top of the axes (redrawn when a task changes)
+  private Bitmap axesLayer;
+  private Bitmap taskLayer;
+  private final Canvas taskLayerCanvas = new Canvas();
+  private boolean taskLayerValid = false;
+  private final Rect dirtyArea = new Rect(); // part of the task layer to redraw (if still valid)
+
+  // Preview of dropping the task being dragged, worked out at most once a frame (for the latest
+  // drag position) and drawn over the task layer
+  private final DropPreview dropPreview = new DropPreview();
+  private Task previewTask; // task being dragged (null when there is no preview)
+  private int previewUrgency;
+  private int previewImportance;
+  private boolean previewScheduled = false;
+  private final Runnable previewUpdate = this::updateDropPreview;
 
   // CONSTRUCTOR
 
@@ -85,7 +121,10 @@ public class TaskDraw extends View {
     setTaskViewModel(taskViewModel);
     setDimensions(width, height);
     setupCanvasValues(); // need the dimensions to be set before this setup
-    overlappingTasks();
+    releaseLayers(); // paints and dimensions may have changed
+    taskViewModel.addLoadListener(loadListener);
+    fullLayoutRequested = taskViewModel.getAllTasksLoaded();
+    updateLayout();
   }
 
   // Store the taskViewModel to refer to and write to database and other stored items
@@ -108,6 +147,17 @@ public class TaskDraw extends View {
     // Paint object for check mark
     paintCheckMark = new Paint(paintRect);
     paintCheckMark.setStrokeWidth(strokeCheckmark);
+
+    // Paint objects for the preview of dropping a dragged task
+    paintPreviewFill = new Paint();
+    paintPreviewFill.setColor(previewFillColor);
+    paintPreviewFill.setStyle(Paint.Style.FILL);
+    paintPreviewOutline = new Paint(paintRect);
+    paintPreviewOutline.setColor(previewOutlineColor);
+
+    // Paint object for density map tiles (colored tile by tile)
+    paintDensity = new Paint();
+    paintDensity.setStyle(Paint.Style.FILL);
   }
 
   // Set up text paint object with color and size
@@ -124,6 +174,13 @@ public class TaskDraw extends View {
     fontBottom = paintText.getFontMetrics().bottom;
     margin = marginOuter - fontTop + marginInner;
 
+    paintTextScaled = null;
+
+    // Paint object for the counts on density map tiles
+    paintDensityText = new Paint(paintText);
+    paintDensityText.setTextSize(densityTextSize);
+    paintDensityText.setTextAlign(Paint.Align.CENTER);
+
     // Paint object for axis label text
     paintAxisLabels = new Paint(paintText);
     paintAxisLabels.setUnderlineText(true);
@@ -133,35 +190,63 @@ public class TaskDraw extends View {
   public void setDimensions(float width, float height) {
     widthCanvas = width;
     heightCanvas = height;
+    TaskGeometry newGeometry =
+        geometry == null ? new TaskGeometry(width, height) : geometry.resized(width, height);
+    if (!newGeometry.sameLayoutAs(geometry)) { // keep the old one so the layout can be reused
+      geometry = newGeometry;
+    }
+  }
+
+  // Zoom the view in (scale > 1) or out, keeping the point under the focus where it is
+  public void zoomBy(float scale, float focusX, float focusY) {
+    moveView(geometry.zoomed(scale, focusX, focusY));
+  }
+
+  // Move the view by a distance in pixels (the content moves the opposite way, as when scrolling)
+  public void panBy(float dx, float dy) {
+    moveView(geometry.panned(dx, dy));
+  }
+
+  // Switch to a new view of the graph in the middle of a gesture.  The last layout is drawn moved
+  // and scaled to fit (see onDraw), and the tasks are only laid out again when the gesture ends,
+  // or sooner if the view goes past the part of the graph that was laid out.
+  private void moveView(@NotNull TaskGeometry newGeometry) {
+    if (newGeometry.sameLayoutAs(geometry)) {
+      return;
+    }
+    geometry = newGeometry;
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (!layoutRequested && (snapshot == null || !snapshot.geometry.containsView(geometry))) {
+      updateLayout();
+    } else {
+      invalidate();
+    }
+  }
+
+  // The gesture moving the view has ended: lay out the tasks in view where it stopped
+  public void settleView() {
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (taskViewModel != null && (snapshot == null || !snapshot.geometry.sameLayoutAs(geometry))) {
+      updateLayout();
+    }
   }
 
   // GETTER FUNCTIONS
 
   // Function to determine the absolute distance position on the urgency vs importance graphic
   protected float[] getPixelCoordinates(int urgency, int importance) {
-    float[] percentCoordinates = getPercentCoordinates(urgency, importance);
-    float x = percentCoordinates[0] * (widthCanvas - 2 * margin) + margin;
-    float y =
-        percentCoordinates[1] * (heightCanvas - 2 * margin - (fontBottom - fontTop))
-            + margin
-            + padding
-            - fontTop;
-    return new float[] {x, y};
+    return geometry.getPixelCoordinates(urgency, importance);
   }
 
   // Inverse of function above
   public int[] getRatings(float x, float y) {
-    float percentX = (x - margin) / (widthCanvas - 2 * margin - (fontBottom - fontTop));
-    float percentY = (y - margin) / (heightCanvas - 2 * margin - (fontBottom - fontTop));
-    int urgency = (int) (100 * (1.0 - percentX));
-    int importance = (int) (100 * (1.0 - percentY));
-    return new int[] {urgency, importance};
+    return geometry.getRatings(x, y);
   }
 
   // SETUP FUNCTIONS
 
   // Derive values for axis labels with arrows (arrows drawn manually, many lines)
-  private void setupCanvasValues() {
+  protected void setupCanvasValues() {
 
     // Gather measurements for vertical label (importance)
     // (Note that the text is meant to read from bottom to top and the canvas is rotated
@@ -266,253 +351,324 @@ public class TaskDraw extends View {
   }
 
   // Function to get all the necessary dimensions for the task label, check box, and check mark.
-  // These metrics are stored in hash maps in taskViewModel to be pulled during an 'onDraw()' call
+  // (The calculations live in TaskGeometry so that the layout thread can make graphics too)
   @Contract("_, _, _ -> new")
   protected @NotNull TaskGraphic setGraphic(String label, int urgency, int importance) {
+    return geometry.makeGraphic(label, urgency, importance);
+  }
 
-    // Get the position on the canvas for the given task
-    float[] coordinates = getPixelCoordinates(urgency, importance);
-    float x = coordinates[0]; // The horizontal position of the left side of the checkbox
-    float y = coordinates[1]; // The baseline for text and checkbox
-
-    // Create the dimensions for the task text on the canvas
-    Rect rectText = new Rect(); // Outlines the text
-
-    // Get text dimensions using two different approaches
-    paintText.getTextBounds(label, 0, label.length(), rectText);
-    float textWidth = rectText.width();
-
-    float width = checkBoxSide + spacing + textWidth;
-
-    float bottom = y + fontBottom;
-    float top = y + fontTop;
-
-    float rectLeft;
-    float rectRight;
-    float textLeft;
-    float textRight;
-
-    float left;
-    float right;
+  // Ask for the arrangement of tasks (on their own, nudged apart or collapsed into groups) to be
+  // brought up to date.  It is worked out in the background (after the first layout, only the
+  // tasks that changed and their neighbours are redone) and shown when it arrives.
+  public void updateLayout() {
+    TaskLayoutWorker taskLayoutWorker = taskViewModel.getTaskLayoutWorker();
+    invalidateTasks(); // something changed (at least whether a task is being moved)
+
+    // Show the last layout straight away if it fits (a new view after a fragment change)
+    TaskLayoutSnapshot latestSnapshot = taskLayoutWorker.getLatestSnapshot();
+    if (layoutSnapshot == null
+        && latestSnapshot != null
+        && latestSnapshot.geometry.sameLayoutAs(geometry)) {
+      publishLayout(latestSnapshot);
+    }
+    layoutRequested = true;
+    taskLayoutWorker.requestLayout(geometry, layoutListener);
+  }
 
-    float checkBoxStart;
+  // Hide a task while it is being dragged, re-drawing only its area (the layout stays as it is)
+  public void startMovingTask(@NotNull Task task) {
+    task.setMoving(true);
+    invalidateTask(task);
+  }
 
-    // See if contents should be on left or right of origin
-    if (x + width > widthCanvas - margin) {
-      x = widthCanvas - margin - width;
+  // Show a dragged task again: where it was (if the drag was cancelled), or where it was dropped,
+  // once the layout thread has placed it (the task must already be updated in the view model)
+  public void stopMovingTask(@NotNull Task task, boolean dropped) {
+    task.setMoving(false);
+    previewTask = null;
+    dropPreview.clear();
+    invalidate(); // take the preview off the screen
+    if (dropped) {
+      updateLayout();
+    } else {
+      invalidateTask(task);
     }
-    rectLeft = x;
-    rectRight = x + checkBoxSide;
-    checkBoxStart = rectLeft;
-    textLeft = rectRight + spacing;
-    textRight = textLeft + textWidth;
-    left = rectLeft;
-    right = textRight;
+  }
 
-    Rect touchArea = new Rect((int) left, (int) top, (int) right, (int) bottom);
+  // Show where a dragged task would go if dropped at the given ratings.  Drag positions arrive
+  // more often than frames are drawn, so only the latest is worked out, before the next frame.
+  public void previewDrop(@NotNull Task task, int urgency, int importance) {
+    previewTask = task;
+    previewUrgency = urgency;
+    previewImportance = importance;
+    if (!previewScheduled) {
+      previewScheduled = true;
+      postOnAnimation(previewUpdate);
+    }
+  }
 
-    // Increase the touch area a little bit for smoother response
-    touchArea.inset(-(int) padding, -(int) padding);
+  private void updateDropPreview() {
+    previewScheduled = false;
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (previewTask == null || snapshot == null) {
+      return;
+    }
+    dropPreview.update(
+        snapshot, previewTask, previewUrgency, previewImportance, previewBudgetNanos);
+    invalidate(); // only the preview changed, so this copies the task layer and draws over it
+  }
 
-    // Update measurements in taskViewModel (so they don't have to be recalculated on drawing)
-    return new TaskGraphic(y, checkBoxStart, textLeft, touchArea);
+  // More tasks have been loaded: show them as soon as they are laid out (every layout after the
+  // last page includes every task)
+  private void tasksLoaded(boolean allTasksLoaded) {
+    fullLayoutRequested |= allTasksLoaded;
+    updateLayout();
   }
 
-  // This function moves ("nudges") individual tasks that overlap so they are next to each other
-  // but not overlapping.
-  // Todo: change code so that tasks can fit in the negative spaces of task groups
-  protected boolean nudgeTasks(@NotNull TaskGroup taskGroup, boolean forceNudge) {
+  // A layout asked for has arrived (called on the user interface thread).  If the view has been
+  // moved past it since (in the middle of a gesture), the next is asked for straight away.
+  private void layoutReady(@NotNull TaskLayoutSnapshot snapshot) {
+    layoutRequested = false;
+    publishLayout(snapshot);
+    if (fullLayoutRequested) {
+      fullLayoutRequested = false;
+      fullLayoutPublished = true;
+    }
+    if (!snapshot.geometry.containsView(geometry)) {
+      updateLayout();
+    }
+  }
 
-    // Get the position on the canvas for the given task
-    float[] coordinates = getPixelCoordinates(taskGroup.getUrgency(), taskGroup.getImportance());
-    float yOrigin = coordinates[1]; // The vertical position of the baseline
-    // (lower edge of checkbox and baseline for text)
+  // Show a finished layout (called on the user interface thread)
+  protected void publishLayout(@NotNull TaskLayoutSnapshot snapshot) {
+    layoutSnapshot = snapshot;
+    invalidateTasks(); // force a re-draw
+  }
 
-    // Setting up task measurements (including totals)
-    int numTasks = taskGroup.getTasks().size();
-    float taskHeight = fontBottom - fontTop;
-    float paddedTaskHeight = taskHeight + 2 * padding;
-    float totalTaskHeight = numTasks * paddedTaskHeight;
-    float topOfTasks = (float) (yOrigin - totalTaskHeight / 2.0);
-    float bottomOfTasks = (float) (yOrigin + totalTaskHeight / 2.0);
+  // Re-draw the tasks (for changes that the layout does not know about), rather than just copying
+  // the cached task layer to the screen
+  public void invalidateTasks() {
+    taskLayerValid = false;
+    invalidate();
+  }
 
-    // Adjust so margins are not crossed
-    // (Note that we assume that the tasks don't cross both the top and bottom, that they fit)
-    if (topOfTasks < margin) {
-      topOfTasks = margin;
-      bottomOfTasks = topOfTasks + totalTaskHeight;
+  // Re-draw just the area of one task (such as after checking it off).  The whole view is still
+  // invalidated (hardware acceleration ignores a dirty rectangle anyway), so the saving comes from
+  // only re-drawing that area of the cached task layer before it is copied to the screen.
+  public void invalidateTask(@NotNull Task task) {
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (snapshot == null) {
+      return;
     }
-    if (bottomOfTasks > heightCanvas - margin) {
-      bottomOfTasks = heightCanvas - margin;
-      topOfTasks = bottomOfTasks - totalTaskHeight;
+    for (int i = 0; i < snapshot.tasks.length; i++) {
+      if (snapshot.tasks[i] == task) {
+        TaskGraphicBuffer taskGraphics = snapshot.taskGraphics;
+        int left = taskGraphics.getLeft(i);
+        int top = taskGraphics.getTop(i);
+        int right = taskGraphics.getRight(i);
+        int bottom = taskGraphics.getBottom(i);
+        dirtyArea.union(left, top, right, bottom);
+        invalidate();
+        return;
+      }
     }
+  }
 
-    if (!forceNudge) {
-      // Test dimensions to see if nudging would produce any unwanted overlap of graphics
-      int counter = 0;
-      for (Task task : taskGroup.getTasks()) {
+  // Stop receiving layouts once the view is gone
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    releaseLayers();
+    if (taskViewModel != null) {
+      taskViewModel.getTaskLayoutWorker().removeListener(layoutListener);
+      taskViewModel.removeLoadListener(loadListener);
+    }
+  }
 
-        // See if the minimum required nudging exceeds the predetermined movement limit
-        float yBaseline = task.getTaskGraphic().getBaseline();
-        float yBaselineDest = topOfTasks + padding - fontTop + counter * paddedTaskHeight;
-        float nudgeY = yBaselineDest - yBaseline;
-        if (Math.abs(nudgeY) / heightCanvas > maxNudgeRatio) { // Only move tasks so far
-          return false;
-        }
+  // DRAW FUNCTION (THE HEART OF THE CLASS AND MAY BE CALLED VERY FREQUENTLY)
 
-        // Check and see if there is any overlap with other tasks for dedicated touch area
-        Rect testRect = new Rect(task.getTaskGraphic().getTouchArea());
-        testRect.offset(0, (int) nudgeY);
-        for (Task checkTask : taskViewModel.getTasks()) {
-          if (!taskGroup.isTaskInGroup(checkTask)
-              && testRect.intersect(checkTask.getTaskGraphic().getTouchArea())) {
-            return false;
-          }
-        }
+  // Called by the view whenever an update to the graphics is warranted (automatic)
+  // It sets up every graphic on the screen (except the background)
+  protected void onDraw(Canvas canvas) {
 
-        // Check task group touch areas as well
-        for (TaskGroup checkTaskGroup : taskViewModel.getTaskGroups()) {
-          if (taskGroup != checkTaskGroup
-              && testRect.intersect(checkTaskGroup.getTaskGraphic().getTouchArea())) {
-            return false;
-          }
-        }
-        counter++;
+    // Draw each task individually
+    // Make sure a layout has arrived (not too early in program)
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (snapshot != null && prepareLayers()) {
+      if (!snapshot.geometry.sameLayoutAs(geometry)) {
+
+        // The view is being moved: draw the layout where the new view puts it, over the axes,
+        // until the tasks have been laid out for the new view
+        canvas.drawBitmap(axesLayer, 0, 0, null);
+        canvas.save();
+        snapshot.geometry.transformTo(canvas, geometry);
+        drawTasks(canvas, snapshot, null);
+        canvas.restore();
+        return;
+      }
+      if (!taskLayerValid) {
+        taskLayer.eraseColor(Color.TRANSPARENT);
+        taskLayerCanvas.drawBitmap(axesLayer, 0, 0, null);
+        drawTasks(taskLayerCanvas, snapshot, null);
+        taskLayerValid = true;
+      } else if (!dirtyArea.isEmpty()) {
+
+        // Only clear and re-draw what overlaps the changed area
+        taskLayerCanvas.save();
+        taskLayerCanvas.clipRect(dirtyArea);
+        taskLayerCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        taskLayerCanvas.drawBitmap(axesLayer, 0, 0, null);
+        drawTasks(taskLayerCanvas, snapshot, dirtyArea);
+        taskLayerCanvas.restore();
+      }
+      dirtyArea.setEmpty();
+      canvas.drawBitmap(taskLayer, 0, 0, null);
+      drawDropPreview(canvas);
+      if (fullLayoutPublished) {
+        fullLayoutPublished = false;
+        StartupTimer.fullyLoaded();
       }
     }
+  }
 
-    // If the tests were passed, then nudge each task to an unoccupied location
-    int counter = 0;
-    for (Task task : taskGroup.getTasks()) {
-      float yBaseline = task.getTaskGraphic().getBaseline();
-      float yBaselineDest = topOfTasks + padding - fontTop + counter * paddedTaskHeight;
-      float nudgeY = yBaselineDest - yBaseline;
-      task.getTaskGraphic().move(0, (int) nudgeY);
-      counter++;
+  // Draw where the dragged task would land (and its label, or its group's), and outline where
+  // the tasks it would be stacked with would be moved to
+  protected void drawDropPreview(@NotNull Canvas canvas) {
+    if (dropPreview.getOutcome() == DropPreview.Outcome.NONE) {
+      return;
+    }
+    TaskGraphicBuffer graphics = dropPreview.getGraphics();
+    int taskIndex = dropPreview.getTaskIndex();
+    for (int i = 0; i < dropPreview.getSize(); i++) {
+      int left = graphics.getLeft(i);
+      int top = graphics.getTop(i);
+      int right = graphics.getRight(i);
+      int bottom = graphics.getBottom(i);
+      if (i == taskIndex) {
+        canvas.drawRect(left, top, right, bottom, paintPreviewFill);
+        canvas.drawText(
+            dropPreview.getLabel(), graphics.getTextStart(i), graphics.getBaseline(i), paintText);
+      } else {
+        canvas.drawRect(left, top, right, bottom, paintPreviewOutline);
+      }
     }
-    return true;
   }
 
-  // Collects pairs of tasks whose touch areas overlap and turns them into a group of items
-  // Any task that overlaps another task or a group becomes part of that group
-  protected void overlappingTasks() {
-
-    taskViewModel.deGroupTasks();
-    boolean newPairingFound;
-    Set<Task> tasks = taskViewModel.getTasks();
-    Set<TaskGroup> taskGroups = taskViewModel.getTaskGroups();
+  // Draw the tasks and groups of a layout (except any task being moved), skipping any that are
+  // entirely outside the clip area (if one is given)
+  protected void drawTasks(
+      @NotNull Canvas canvas, @NotNull TaskLayoutSnapshot snapshot, Rect clip) {
 
-    // Make sure all the graphic information is up-to-date (including tasks in groups)
-    for (Task task : tasks) {
-      setTaskGraphic(task);
+    // Too many tasks to show: draw how many there are in each part of the canvas instead
+    if (snapshot.taskDensity != null) {
+      drawTaskDensity(canvas, snapshot.taskDensity);
+      return;
     }
 
-    // Loop through possible pairs until two that overlap are found,
-    // then queue the group to be created and the tasks to be moved to a group list
-    do {
-      TaskGroup taskGroupToAdd = new TaskGroup();
-      Set<Task> tasksToRemove = new HashSet<>();
-      Set<Task> otherTasks = new HashSet<>(tasks);
-      newPairingFound = false;
-
-      // Loop through every possible combination of tasks
-      for (Task task : tasks) {
-        if (otherTasks.size() > 0) {
-          otherTasks.remove(task);
-        }
-        // (Note that the lower bound of this loop increases with the first loop.
-        //   This is to prevent redundancy, ex: #1 & #2 vs #2 & #1.  Only first will occur)
-        for (Task otherTask : Collections.unmodifiableSet(otherTasks)) {
-
-          // See if item touch areas overlap and group them together (groups and/or tasks)
-          Rect touchArea = task.getTaskGraphic().getTouchArea();
-          Rect otherTouchArea = otherTask.getTaskGraphic().getTouchArea();
-          if (intersects(touchArea, otherTouchArea)) {
-            newPairingFound = true; // Break while loop to start over with new info
-
-            // Combine into groups:
-            // (item + item, item + group, group + item, or group + group)
-            taskGroupToAdd.addTask(task);
-            taskGroupToAdd.addTask(otherTask);
-            setTaskGroupGraphic(taskGroupToAdd);
-            tasksToRemove.add(task);
-            tasksToRemove.add(otherTask);
-          }
-          // Stop looking for pairs and process this pair
-          // NOTE: the reason we break the double for-loop instead of marking all
-          // combinations and processing them in the end is that grouping changes the
-          // initial conditions of the process, so we start over for each pair found
-          if (newPairingFound) {
-            break;
-          }
-        }
-        if (newPairingFound) {
-          break;
-        }
+    // For each and every task...
+    // (Indexed loops over the snapshot's arrays, so that a frame allocates nothing)
+    TaskGroup[] taskGroups = snapshot.taskGroups;
+    for (int g = 0; g < taskGroups.length; g++) {
+      if (clip == null || Rect.intersects(clip, taskGroups[g].getTaskGraphic().getTouchArea())) {
+        drawTaskGroup(canvas, taskGroups[g]);
       }
-
-      // Todo: this area below needs be organized better (check first, then add/remove, not vice versa)
-
-      // Add new groups to the master list for groups and remove grouped tasks from master
-      // list for tasks (because they are now a part of a group, eliminates redundancy)
-      if (newPairingFound) {
-        taskGroups.add(taskGroupToAdd);
-        tasks.removeAll(tasksToRemove);
-
-        // See if the newly formed group overlaps any other tasks
-        for (Task task : tasks) {
-          if (taskGroupToAdd
-              .getTaskGraphic()
-              .getTouchArea()
-              .intersect(task.getTaskGraphic().getTouchArea())) {
-            taskGroupToAdd.addTask(task);
-            setTaskGroupGraphic(taskGroupToAdd);
-            tasksToRemove.add(task);
-          }
-        }
-
-        tasks.removeAll(tasksToRemove);
+    }
+    TaskGraphicBuffer taskGraphics = snapshot.taskGraphics;
+    for (int i = 0; i < snapshot.tasks.length; i++) {
+      Task task = snapshot.tasks[i];
+      if (clip != null
+          && !clip.intersects(
+              taskGraphics.getLeft(i),
+              taskGraphics.getTop(i),
+              taskGraphics.getRight(i),
+              taskGraphics.getBottom(i))) {
+        continue;
       }
-
-    } while (newPairingFound); // Keep going until no more overlaps are detected
-
-    // If nudging the tasks worked, then no need for a group
-    Set<TaskGroup> taskGroupsToRemove = new HashSet<>();
-    Set<Task> tasksToAdd = new HashSet<>();
-    for (TaskGroup taskGroup : taskGroups) {
-      if (nudgeTasks(taskGroup, false)) {
-        taskGroupsToRemove.add(taskGroup);
-        tasksToAdd.addAll(taskGroup.getTasks());
+      if (!task.getMoving()){
+        drawTask(
+            canvas,
+            task,
+            taskGraphics.getBaseline(i),
+            taskGraphics.getCheckBoxStart(i),
+            taskGraphics.getTextStart(i),
+            scaleAdjustment,
+            false);
       }
     }
-
-    taskGroups.removeAll(taskGroupsToRemove);
-    tasks.addAll(tasksToAdd);
-    invalidate(); // force a re-draw
   }
 
-  // DRAW FUNCTION (THE HEART OF THE CLASS AND MAY BE CALLED VERY FREQUENTLY)
-
-  // Called by the view whenever an update to the graphics is warranted (automatic)
-  // It sets up every graphic on the screen (except the background)
-  protected void onDraw(Canvas canvas) {
-
-    // Draw each task individually
-    // Make sure the taskViewModel exists (not too early in program)
-    if (taskViewModel != null) {
-      // For each and every task...
-      for (TaskGroup taskGroup : taskViewModel.getTaskGroups()) {
-        drawTaskGroup(canvas, taskGroup);
-      }
-      for (Task task : taskViewModel.getTasks()) {
-        if (!task.getMoving()){
-          drawTask(canvas, task, scaleAdjustment, false);
+  // Draw each occupied tile of a density map in the color of where its tasks are, more opaque the
+  // more tasks it has, with the number of tasks in the middle (the same number of tiles however
+  // many tasks there are, and nothing allocated)
+  protected void drawTaskDensity(@NotNull Canvas canvas, @NotNull TaskDensity taskDensity) {
+    int maxCount = taskDensity.getMaxCount();
+    float textOffset = -(paintDensityText.ascent() + paintDensityText.descent()) / 2;
+    for (int row = 0; row < TaskDensity.tilesPerSide; row++) {
+      int top = taskDensity.getTileTop(row);
+      int bottom = taskDensity.getTileTop(row + 1);
+      for (int column = 0; column < TaskDensity.tilesPerSide; column++) {
+        int tile = row * TaskDensity.tilesPerSide + column;
+        int count = taskDensity.getCount(tile);
+        if (count == 0) {
+          continue;
         }
+        int left = taskDensity.getTileLeft(column);
+        int right = taskDensity.getTileLeft(column + 1);
+        int color =
+            ColorTable.getColor(
+                getContext(), taskDensity.getImportance(tile), taskDensity.getUrgency(tile));
+        int alpha = densityMinAlpha + (255 - densityMinAlpha) * count / maxCount;
+        paintDensity.setColor((color & 0x00FFFFFF) | (alpha << 24));
+        canvas.drawRect(left, top, right, bottom, paintDensity);
+
+        // Write the count out digit by digit (right to left)
+        int start = densityCountChars.length;
+        do {
+          densityCountChars[--start] = (char) ('0' + count % 10);
+          count /= 10;
+        } while (count > 0);
+        canvas.drawText(
+            densityCountChars,
+            start,
+            densityCountChars.length - start,
+            (left + right) / 2f,
+            (top + bottom) / 2f + textOffset,
+            paintDensityText);
       }
-      setupCanvas(canvas); // Draw axes elements
     }
   }
 
+  // Make the off-screen layers for the current canvas size (drawing the axes layer right away),
+  // unless the canvas has no size yet
+  private boolean prepareLayers() {
+    int width = (int) widthCanvas;
+    int height = (int) heightCanvas;
+    if (width <= 0 || height <= 0) {
+      return false;
+    }
+    if (axesLayer != null && axesLayer.getWidth() == width && axesLayer.getHeight() == height) {
+      return true;
+    }
+    releaseLayers();
+    axesLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    setupCanvas(new Canvas(axesLayer)); // Draw axes elements
+    taskLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    taskLayerCanvas.setBitmap(taskLayer);
+    return true;
+  }
+
+  // Free the off-screen layers (they are made again when next needed)
+  private void releaseLayers() {
+    if (axesLayer != null) {
+      taskLayerCanvas.setBitmap(null);
+      axesLayer.recycle();
+      taskLayer.recycle();
+      axesLayer = null;
+      taskLayer = null;
+    }
+    taskLayerValid = false;
+  }
+
   // Draw permanent graphics such as axes labels and arrows
   public void setupCanvas(@NotNull Canvas canvas) {
 
@@ -570,12 +726,40 @@ public class TaskDraw extends View {
   // Draw the task onto the canvas (because this function has the potential to be
   // called very frequently, no calculations or large allocations are performed here)
   protected void drawTask(@NotNull Canvas canvas, @NotNull Task task, float scaleFactor, boolean center) {
+    drawTask(canvas, task, task.getTaskGraphic(), scaleFactor, center);
+  }
+
+  // Draw the task with the given graphic (rather than the one stored in the task)
+  protected void drawTask(
+      @NotNull Canvas canvas,
+      @NotNull Task task,
+      @NotNull TaskGraphic graphic,
+      float scaleFactor,
+      boolean center) {
+    drawTask(
+        canvas,
+        task,
+        graphic.getBaseline(),
+        graphic.getCheckBoxStart(),
+        graphic.getTextStart(),
+        scaleFactor,
+        center);
+  }
+
+  // Draw the task at the given position (read straight from a layout's graphic buffer)
+  protected void drawTask(
+      @NotNull Canvas canvas,
+      @NotNull Task task,
+      float baseline,
+      float checkBoxStart,
+      float textStart,
+      float scaleFactor,
+      boolean center) {
 
     // Modify to center, not align to origin
 
     float displacementX = 1;
 
-    TaskGraphic graphic = task.getTaskGraphic();
     String label = task.getLabel();
 
     // Pull the pre-determined position information for the task
@@ -584,10 +768,10 @@ public class TaskDraw extends View {
       yBaseline = canvas.getHeight()-scaleFactor*(padding + fontBottom);
     }
     else {
-      yBaseline = graphic.getBaseline();
+      yBaseline = baseline;
     }
-    float xCheckbox = scaleFactor*graphic.getCheckBoxStart() + displacementX;
-    float xText = scaleFactor*graphic.getTextStart() + displacementX;
+    float xCheckbox = scaleFactor*checkBoxStart + displacementX;
+    float xText = scaleFactor*textStart + displacementX;
 
 
     if (center) {
@@ -606,28 +790,54 @@ public class TaskDraw extends View {
         xCheckbox + scaleFactor*checkBoxSide, yBaseline, paintRect);
 
     // Display the label in the pre-determined position
-    float originalTextSize = paintText.getTextSize();
-    paintText.setTextSize(paintText.getTextSize()*scaleFactor);
-    canvas.drawText(label, xText, yBaseline, paintText);
-    paintText.setTextSize(originalTextSize);
+    canvas.drawText(label, xText, yBaseline, getPaintText(scaleFactor));
 
     // If task is completed, add a check mark
     if (task.getCompleted()) {
       canvas.drawLine(
           scaleFactor*(xCheckbox + checkBoxSide),
-          (float) (yBaseline - (1.5 * scaleFactor * checkBoxSide)),
-          (float) (xCheckbox + (0.5 * scaleFactor * checkBoxSide)),
+          yBaseline - 1.5f * scaleFactor * checkBoxSide,
+          xCheckbox + 0.5f * scaleFactor * checkBoxSide,
           yBaseline,
           paintCheckMark);
       canvas.drawLine(
-          (float) (xCheckbox + (0.5 * scaleFactor * checkBoxSide)),
+          xCheckbox + 0.5f * scaleFactor * checkBoxSide,
           yBaseline,
           xCheckbox,
-          (float) (yBaseline - (0.5 * scaleFactor * checkBoxSide)),
+          yBaseline - 0.5f * scaleFactor * checkBoxSide,
           paintCheckMark);
     }
   }
 
+  // Draw a task enlarged for its drag shadow (filling the canvas), copying a picture of it drawn
+  // the first time it was dragged looking like this (see DragShadowCache)
+  public void drawDragShadow(@NotNull Canvas canvas, @NotNull Task task, float scaleFactor) {
+    int width = canvas.getWidth();
+    int height = canvas.getHeight();
+    Bitmap shadow = DragShadowCache.get(task, scaleFactor, width, height);
+    if (shadow != null) {
+      canvas.drawBitmap(shadow, 0, 0, null);
+      return;
+    }
+    shadow = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    drawTask(new Canvas(shadow), task, scaleFactor, true);
+    canvas.drawBitmap(shadow, 0, 0, null);
+    DragShadowCache.put(task, scaleFactor, width, height, shadow); // (after drawing: may evict it)
+  }
+
+  // Text paint for the given scale (only made again when a different scale is asked for)
+  private Paint getPaintText(float scaleFactor) {
+    if (scaleFactor == 1) {
+      return paintText;
+    }
+    if (paintTextScaled == null || paintTextScale != scaleFactor) {
+      paintTextScaled = new Paint(paintText);
+      paintTextScaled.setTextSize(paintText.getTextSize() * scaleFactor);
+      paintTextScale = scaleFactor;
+    }
+    return paintTextScaled;
+  }
+
   protected void drawTaskGroup(@NotNull Canvas canvas, @NotNull TaskGroup taskGroup) {
 
     TaskGraphic graphic = taskGroup.getTaskGraphic();
@@ -661,24 +871,44 @@ public class TaskDraw extends View {
   // This function returns a list of tasks that were touched by the user on the canvas
   public Task getTouchedTask(float x, float y) {
 
-    // Loop through all tasks (groups, too) and see if touch coordinates are inside a touch area
-    for (Task task : taskViewModel.getTasks()) {
-      if (task.getTaskGraphic().getTouchArea().contains((int) x, (int) y)) {
-        return task;
+    // Look up the touch coordinates in the layout's index of touch areas
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (snapshot != null) {
+      int i = snapshot.taskGrid.find(getLayoutX(snapshot, x), getLayoutY(snapshot, y));
+      if (i >= 0) {
+        return snapshot.tasks[i];
       }
     }
     return null; // return null if no tasks were found
   }
 
   public TaskGroup getTouchedTaskGroup(float x, float y) {
-    for (TaskGroup taskGroup : taskViewModel.getTaskGroups()) {
-      if (taskGroup.getTaskGraphic().getTouchArea().contains((int) x, (int) y)) {
-        return taskGroup;
+    TaskLayoutSnapshot snapshot = layoutSnapshot;
+    if (snapshot != null) {
+      int g = snapshot.taskGroupGrid.find(getLayoutX(snapshot, x), getLayoutY(snapshot, y));
+      if (g >= 0) {
+        return snapshot.taskGroups[g];
       }
     }
     return null;
   }
 
+  // Where a touch on the canvas is in a layout, which may be for the view before it was moved (it
+  // is drawn moved to fit until the layout for the new view arrives, see onDraw)
+  private int getLayoutX(@NotNull TaskLayoutSnapshot snapshot, float x) {
+    if (snapshot.geometry.sameLayoutAs(geometry)) {
+      return (int) x;
+    }
+    return (int) snapshot.geometry.getXFrom(geometry, x);
+  }
+
+  private int getLayoutY(@NotNull TaskLayoutSnapshot snapshot, float y) {
+    if (snapshot.geometry.sameLayoutAs(geometry)) {
+      return (int) y;
+    }
+    return (int) snapshot.geometry.getYFrom(geometry, y);
+  }
+
   // DEBUG
 
   // Debugging function for checking system state
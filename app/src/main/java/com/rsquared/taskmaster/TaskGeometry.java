@@ -0,0 +1,307 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import static com.rsquared.taskmaster.TaskDraw.checkBoxSide;
+import static com.rsquared.taskmaster.TaskDraw.marginInner;
+import static com.rsquared.taskmaster.TaskDraw.marginOuter;
+import static com.rsquared.taskmaster.TaskDraw.maxNudgeRatio;
+import static com.rsquared.taskmaster.TaskDraw.padding;
+import static com.rsquared.taskmaster.TaskDraw.spacing;
+import static com.rsquared.taskmaster.TaskDraw.textSize;
+
+// Measurements of the task canvas at one size and zoom, and the calculations that place tasks on
+// it.  The viewport is the part of the urgency vs importance square shown on the canvas, given as
+// fractions of the whole square (the full square by default).
+// Instances never change, and labels are measured through the shared TextMeasureCache, so the
+// layout can be worked out away from the user interface thread.  The font is measured once for a
+// canvas, and its measurements are shared by every geometry zoomed, panned or resized from it.
+public class TaskGeometry {
+
+  // PRIVATE MEMBERS
+
+  private static final float minViewSpan = (float) 0.125; // Zoom in up to 8 times
+
+  private final float widthCanvas;
+  private final float heightCanvas;
+  private final float margin; // margin inner + |fontTop| + outer margin
+  private final Paint.FontMetrics fontMetrics; // (shared, never changed)
+  private final float fontTop; // distance between baseline and highest point in text (-)
+  private final float fontBottom; // distance between baseline and lowest point in text (+)
+  private final float viewLeft; // fraction of the square left of (more urgent than) the viewport
+  private final float viewTop; // fraction of the square above (more important than) the viewport
+  private final float viewSpan; // fraction of the square's width and height that is shown
+
+  // CONSTRUCTORS
+
+  public TaskGeometry(float width, float height) {
+    this(width, height, 0, 0, 1);
+  }
+
+  public TaskGeometry(float width, float height, float left, float top, float span) {
+    this(width, height, left, top, span, measureFont());
+  }
+
+  private TaskGeometry(
+      float width,
+      float height,
+      float left,
+      float top,
+      float span,
+      @NotNull Paint.FontMetrics metrics) {
+    widthCanvas = width;
+    heightCanvas = height;
+    viewSpan = Math.max(minViewSpan, Math.min(1, span));
+    viewLeft = Math.max(0, Math.min(1 - viewSpan, left));
+    viewTop = Math.max(0, Math.min(1 - viewSpan, top));
+    fontMetrics = metrics;
+    fontTop = fontMetrics.top;
+    fontBottom = fontMetrics.bottom;
+    margin = marginOuter - fontTop + marginInner;
+  }
+
+  @NotNull
+  private static Paint.FontMetrics measureFont() {
+    Paint paintMetrics = new Paint();
+    paintMetrics.setTextSize(textSize);
+    return paintMetrics.getFontMetrics();
+  }
+
+  // GETTER FUNCTIONS
+
+  public int getWidth() {
+    return (int) widthCanvas;
+  }
+
+  public int getHeight() {
+    return (int) heightCanvas;
+  }
+
+  // Size of the spatial index buckets: about the height of one task's touch area
+  public int getGridCellSize() {
+    return (int) (fontBottom - fontTop + 2 * padding);
+  }
+
+  // Whether two geometries lay tasks out identically
+  public boolean sameLayoutAs(TaskGeometry other) {
+    return other != null
+        && widthCanvas == other.widthCanvas
+        && heightCanvas == other.heightCanvas
+        && viewLeft == other.viewLeft
+        && viewTop == other.viewTop
+        && viewSpan == other.viewSpan;
+  }
+
+  // Whether another geometry's viewport lies inside this one's (so every task in view there was
+  // laid out here), on a canvas of the same size
+  public boolean containsView(TaskGeometry other) {
+    return other != null
+        && widthCanvas == other.widthCanvas
+        && heightCanvas == other.heightCanvas
+        && other.viewLeft >= viewLeft
+        && other.viewTop >= viewTop
+        && other.viewLeft + other.viewSpan <= viewLeft + viewSpan
+        && other.viewTop + other.viewSpan <= viewTop + viewSpan;
+  }
+
+  // VIEWPORT FUNCTIONS
+
+  // A canvas of another size showing the same viewport
+  @Contract("_, _ -> new")
+  public @NotNull TaskGeometry resized(float width, float height) {
+    return new TaskGeometry(width, height, viewLeft, viewTop, viewSpan, fontMetrics);
+  }
+
+  // The same canvas with the viewport zoomed in (scale > 1) or out around a point on the canvas,
+  // so that whatever is under the point stays there
+  @Contract("_, _, _ -> new")
+  public @NotNull TaskGeometry zoomed(float scale, float focusX, float focusY) {
+    float fractionX = (focusX - margin) / (widthCanvas - 2 * margin);
+    float fractionY = (focusY - margin) / (heightCanvas - 2 * margin);
+    float span = Math.max(minViewSpan, Math.min(1, viewSpan / scale));
+    float left = viewLeft + fractionX * (viewSpan - span);
+    float top = viewTop + fractionY * (viewSpan - span);
+    return new TaskGeometry(widthCanvas, heightCanvas, left, top, span, fontMetrics);
+  }
+
+  // The same canvas with the viewport moved by a distance in pixels
+  @Contract("_, _ -> new")
+  public @NotNull TaskGeometry panned(float dx, float dy) {
+    float left = viewLeft + dx / (widthCanvas - 2 * margin) * viewSpan;
+    float top = viewTop + dy / (heightCanvas - 2 * margin) * viewSpan;
+    return new TaskGeometry(widthCanvas, heightCanvas, left, top, viewSpan, fontMetrics);
+  }
+
+  // Move and scale a canvas so that whatever is drawn where this geometry places it lands where
+  // another geometry would place it (to show a layout in a view it was not laid out for)
+  public void transformTo(@NotNull Canvas canvas, @NotNull TaskGeometry other) {
+    canvas.translate(other.margin + getOffsetX(other), other.getPlotTop() + getOffsetY(other));
+    canvas.scale(getScaleX(other), getScaleY(other));
+    canvas.translate(-margin, -getPlotTop());
+  }
+
+  // The opposite: where a point on a canvas showing another geometry's view is in this one's (to
+  // find what was touched in a layout drawn through transformTo)
+  public float getXFrom(@NotNull TaskGeometry other, float x) {
+    return (x - other.margin - getOffsetX(other)) / getScaleX(other) + margin;
+  }
+
+  public float getYFrom(@NotNull TaskGeometry other, float y) {
+    return (y - other.getPlotTop() - getOffsetY(other)) / getScaleY(other) + getPlotTop();
+  }
+
+  // How much bigger another geometry shows things, and how far it moves the top left of this
+  // one's view
+  private float getScaleX(@NotNull TaskGeometry other) {
+    return (viewSpan / other.viewSpan) * (other.getPlotWidth() / getPlotWidth());
+  }
+
+  private float getScaleY(@NotNull TaskGeometry other) {
+    return (viewSpan / other.viewSpan) * (other.getPlotHeight() / getPlotHeight());
+  }
+
+  private float getOffsetX(@NotNull TaskGeometry other) {
+    return (viewLeft - other.viewLeft) / other.viewSpan * other.getPlotWidth();
+  }
+
+  private float getOffsetY(@NotNull TaskGeometry other) {
+    return (viewTop - other.viewTop) / other.viewSpan * other.getPlotHeight();
+  }
+
+  // Whether a task at this urgency and importance is on the canvas (only those are laid out)
+  public boolean isVisible(int urgency, int importance) {
+    float x = getPixelX(urgency);
+    float y = getPixelY(importance);
+    return x >= 0 && x <= widthCanvas && y >= 0 && y <= heightCanvas;
+  }
+
+  // POSITIONING FUNCTIONS
+
+  // Function to determine the absolute distance position on the urgency vs importance graphic
+  public float @NotNull [] getPixelCoordinates(int urgency, int importance) {
+    return new float[] {getPixelX(urgency), getPixelY(importance)};
+  }
+
+  // The same, one coordinate at a time (for laying out many tasks without allocating)
+  public float getPixelX(int urgency) {
+    float percentX = ((100 - (float) urgency) / 100 - viewLeft) / viewSpan;
+    return percentX * getPlotWidth() + margin;
+  }
+
+  public float getPixelY(int importance) {
+    float percentY = ((100 - (float) importance) / 100 - viewTop) / viewSpan;
+    return percentY * getPlotHeight() + margin + padding - fontTop;
+  }
+
+  // Span of the pixel positions across the viewport, and the baseline of the top of the viewport
+  private float getPlotWidth() {
+    return widthCanvas - 2 * margin;
+  }
+
+  private float getPlotHeight() {
+    return heightCanvas - 2 * margin - (fontBottom - fontTop);
+  }
+
+  private float getPlotTop() {
+    return margin + padding - fontTop;
+  }
+
+  // Inverse of function above
+  public int @NotNull [] getRatings(float x, float y) {
+    float percentX = (x - margin) / (widthCanvas - 2 * margin - (fontBottom - fontTop));
+    float percentY = (y - margin) / (heightCanvas - 2 * margin - (fontBottom - fontTop));
+    percentX = viewLeft + percentX * viewSpan;
+    percentY = viewTop + percentY * viewSpan;
+    int urgency = (int) (100 * (1.0 - percentX));
+    int importance = (int) (100 * (1.0 - percentY));
+    return new int[] {urgency, importance};
+  }
+
+  // Function to get all the necessary dimensions for the task label, check box, and check mark.
+  @Contract("_, _, _ -> new")
+  public @NotNull TaskGraphic makeGraphic(String label, int urgency, int importance) {
+    TaskGraphicBuffer graphic = new TaskGraphicBuffer(1);
+    makeGraphic(label, urgency, importance, graphic, 0);
+    return graphic.getTaskGraphic(0);
+  }
+
+  // The same, written into an entry of a buffer (without allocating)
+  public void makeGraphic(
+      @NotNull String label,
+      int urgency,
+      int importance,
+      @NotNull TaskGraphicBuffer graphics,
+      int index) {
+
+    // Get the position on the canvas for the given task
+    float x = getPixelX(urgency); // The horizontal position of the left side of the checkbox
+    float y = getPixelY(importance); // The baseline for text and checkbox
+
+    // Get text dimensions
+    float textWidth = TextMeasureCache.getWidth(label, textSize);
+    float width = checkBoxSide + spacing + textWidth;
+    float bottom = y + fontBottom;
+    float top = y + fontTop;
+
+    // See if contents should be on left or right of origin
+    if (x + width > widthCanvas - margin) {
+      x = widthCanvas - margin - width;
+    }
+    float checkBoxStart = x;
+    float textLeft = x + checkBoxSide + spacing;
+    float textRight = textLeft + textWidth;
+
+    // Increase the touch area a little bit for smoother response
+    graphics.set(
+        index,
+        y,
+        checkBoxStart,
+        textLeft,
+        (int) checkBoxStart - (int) padding,
+        (int) top - (int) padding,
+        (int) textRight + (int) padding,
+        (int) bottom + (int) padding);
+  }
+
+  // Work out how far each of a group's tasks (given by their baselines, in order) must move to be
+  // stacked one under the other around the group's position, without crossing the margins
+  public float @NotNull [] getNudges(int urgency, int importance, float @NotNull [] baselines) {
+
+    // Get the position on the canvas for the given group
+    float yOrigin = getPixelY(importance); // Vertical position of baseline
+
+    // Setting up task measurements (including totals)
+    int numTasks = baselines.length;
+    float taskHeight = fontBottom - fontTop;
+    float paddedTaskHeight = taskHeight + 2 * padding;
+    float totalTaskHeight = numTasks * paddedTaskHeight;
+    float topOfTasks = yOrigin - totalTaskHeight / 2;
+    float bottomOfTasks = yOrigin + totalTaskHeight / 2;
+
+    // Adjust so margins are not crossed
+    // (Note that we assume that the tasks don't cross both the top and bottom, that they fit)
+    if (topOfTasks < margin) {
+      topOfTasks = margin;
+      bottomOfTasks = topOfTasks + totalTaskHeight;
+    }
+    if (bottomOfTasks > heightCanvas - margin) {
+      bottomOfTasks = heightCanvas - margin;
+      topOfTasks = bottomOfTasks - totalTaskHeight;
+    }
+
+    float[] nudges = new float[numTasks];
+    for (int i = 0; i < numTasks; i++) {
+      nudges[i] = topOfTasks + padding - fontTop + i * paddedTaskHeight - baselines[i];
+    }
+    return nudges;
+  }
+
+  // Only move tasks so far
+  public boolean isWithinNudgeLimit(float nudge) {
+    return Math.abs(nudge) / heightCanvas <= maxNudgeRatio;
+  }
+}
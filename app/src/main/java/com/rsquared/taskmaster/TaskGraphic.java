@@ -8,15 +8,15 @@ public class TaskGraphic {
 
   // PRIVATE MEMBERS
 
-  private Float baseline; // y-value of bottom of task text and checkbox
-  private Float checkBoxStart; // x-value of the beginning (left side) of task checkbox
-  private Float textStart; // x-value of the beginning of task text
+  private float baseline; // y-value of bottom of task text and checkbox
+  private float checkBoxStart; // x-value of the beginning (left side) of task checkbox
+  private float textStart; // x-value of the beginning of task text
   private Rect touchArea; // rectangular area around task graphic for touch response
 
   // CONSTRUCTORS
 
   public TaskGraphic(
-      Float newBaseline, Float newCheckBoxStart, Float newTextStart, Rect newTouchArea) {
+      float newBaseline, float newCheckBoxStart, float newTextStart, Rect newTouchArea) {
     setBaseline(newBaseline);
     setCheckBoxStart(newCheckBoxStart);
     setTextStart(newTextStart);
@@ -25,15 +25,15 @@ public class TaskGraphic {
 
   // GETTER METHODS
 
-  public Float getBaseline() {
+  public float getBaseline() {
     return baseline;
   }
 
-  public Float getCheckBoxStart() {
+  public float getCheckBoxStart() {
     return checkBoxStart;
   }
 
-  public Float getTextStart() {
+  public float getTextStart() {
     return textStart;
   }
 
@@ -43,15 +43,15 @@ public class TaskGraphic {
 
   // SETTER METHODS
 
-  public void setBaseline(Float y) {
+  public void setBaseline(float y) {
     baseline = y;
   }
 
-  public void setCheckBoxStart(Float x) {
+  public void setCheckBoxStart(float x) {
     checkBoxStart = x;
   }
 
-  public void setTextStart(Float x) {
+  public void setTextStart(float x) {
     textStart = x;
   }
 
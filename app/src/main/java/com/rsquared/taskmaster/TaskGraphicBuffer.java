@@ -0,0 +1,131 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Rect;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// The same information as TaskGraphic, for many tasks at once, kept in parallel arrays of
+// primitives indexed by position (a layout slot, or a task's index in a snapshot).  Drawing,
+// touch response and nudging read straight from the arrays, so large boards do not need an object
+// (and a Rect) per task.
+public class TaskGraphicBuffer {
+
+  // PRIVATE MEMBERS
+
+  private float[] baselines; // y-value of bottom of task text and checkbox
+  private float[] checkBoxStarts; // x-value of the beginning (left side) of task checkbox
+  private float[] textStarts; // x-value of the beginning of task text
+  private int[] touchAreas; // left, top, right and bottom of each touch area, one after another
+
+  // CONSTRUCTOR
+
+  public TaskGraphicBuffer(int capacity) {
+    baselines = new float[capacity];
+    checkBoxStarts = new float[capacity];
+    textStarts = new float[capacity];
+    touchAreas = new int[4 * capacity];
+  }
+
+  // SETTER METHODS
+
+  public void set(
+      int index,
+      float baseline,
+      float checkBoxStart,
+      float textStart,
+      int left,
+      int top,
+      int right,
+      int bottom) {
+    ensureCapacity(index + 1);
+    baselines[index] = baseline;
+    checkBoxStarts[index] = checkBoxStart;
+    textStarts[index] = textStart;
+    touchAreas[4 * index] = left;
+    touchAreas[4 * index + 1] = top;
+    touchAreas[4 * index + 2] = right;
+    touchAreas[4 * index + 3] = bottom;
+  }
+
+  // Copy another buffer's entry, moved down by dy (like TaskGraphic.move())
+  public void copy(int index, @NotNull TaskGraphicBuffer source, int sourceIndex, int dy) {
+    set(
+        index,
+        source.baselines[sourceIndex] + dy,
+        source.checkBoxStarts[sourceIndex],
+        source.textStarts[sourceIndex],
+        source.touchAreas[4 * sourceIndex],
+        source.touchAreas[4 * sourceIndex + 1] + dy,
+        source.touchAreas[4 * sourceIndex + 2],
+        source.touchAreas[4 * sourceIndex + 3] + dy);
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > baselines.length) {
+      int newCapacity = Math.max(capacity, baselines.length * 2);
+      baselines = Arrays.copyOf(baselines, newCapacity);
+      checkBoxStarts = Arrays.copyOf(checkBoxStarts, newCapacity);
+      textStarts = Arrays.copyOf(textStarts, newCapacity);
+      touchAreas = Arrays.copyOf(touchAreas, 4 * newCapacity);
+    }
+  }
+
+  // GETTER METHODS
+
+  public float getBaseline(int index) {
+    return baselines[index];
+  }
+
+  public float getCheckBoxStart(int index) {
+    return checkBoxStarts[index];
+  }
+
+  public float getTextStart(int index) {
+    return textStarts[index];
+  }
+
+  public int getLeft(int index) {
+    return touchAreas[4 * index];
+  }
+
+  public int getTop(int index) {
+    return touchAreas[4 * index + 1];
+  }
+
+  public int getRight(int index) {
+    return touchAreas[4 * index + 2];
+  }
+
+  public int getBottom(int index) {
+    return touchAreas[4 * index + 3];
+  }
+
+  // Whether a point is inside an entry's touch area (the same test as Rect.contains())
+  public boolean contains(int index, int x, int y) {
+    int left = touchAreas[4 * index];
+    int top = touchAreas[4 * index + 1];
+    int right = touchAreas[4 * index + 2];
+    int bottom = touchAreas[4 * index + 3];
+    return left < right && top < bottom && x >= left && x < right && y >= top && y < bottom;
+  }
+
+  public void getTouchArea(int index, @NotNull Rect area) {
+    area.set(
+        touchAreas[4 * index],
+        touchAreas[4 * index + 1],
+        touchAreas[4 * index + 2],
+        touchAreas[4 * index + 3]);
+  }
+
+  // Make a stand-alone graphic of one entry (for the few places that move graphics around)
+  @Contract("_ -> new")
+  public @NotNull TaskGraphic getTaskGraphic(int index) {
+    Rect touchArea = new Rect();
+    getTouchArea(index, touchArea);
+    return new TaskGraphic(
+        baselines[index], checkBoxStarts[index], textStarts[index], touchArea);
+  }
+}
@@ -0,0 +1,283 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Rect;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// Uniform grid of buckets over the canvas, used as a spatial index for touch areas.  Each
+// rectangle is stored under an integer id (usually the index of a task in some ordering) in every
+// cell it covers, so "what intersects this rectangle?" only looks at nearby entries.
+public class TaskGrid {
+
+  // PRIVATE MEMBERS
+
+  private static final int initialCapacity = 16;
+  private static final int initialCellCapacity = 4;
+
+  private final int cellSize; // width and height of one cell in pixels
+  private final int columns;
+  private final int rows;
+  private final int[][] cells; // ids stored in each cell (row-major)
+  private final int[] cellCounts; // number of ids used in each cell
+
+  // Bounds of each stored rectangle, indexed by id
+  private int[] lefts = new int[initialCapacity];
+  private int[] tops = new int[initialCapacity];
+  private int[] rights = new int[initialCapacity];
+  private int[] bottoms = new int[initialCapacity];
+  private boolean[] present = new boolean[initialCapacity];
+  private int size = 0;
+
+  // Stamps used to report each id only once per query, even if it spans several cells
+  private int[] stamps = new int[initialCapacity];
+  private int currentStamp = 0;
+
+  // CONSTRUCTOR
+
+  // Cover a width x height area (anything outside of it is clamped into the edge cells)
+  public TaskGrid(int width, int height, int cellSize) {
+    this.cellSize = Math.max(1, cellSize);
+    columns = Math.max(1, (width + this.cellSize - 1) / this.cellSize);
+    rows = Math.max(1, (height + this.cellSize - 1) / this.cellSize);
+    cells = new int[columns * rows][];
+    cellCounts = new int[columns * rows];
+  }
+
+  // SETTER METHODS
+
+  // Store a rectangle under the given id (the id must not already be present)
+  public void insert(int id, @NotNull Rect area) {
+    insert(id, area.left, area.top, area.right, area.bottom);
+  }
+
+  public void insert(int id, int left, int top, int right, int bottom) {
+    ensureCapacity(id + 1);
+    lefts[id] = left;
+    tops[id] = top;
+    rights[id] = right;
+    bottoms[id] = bottom;
+    present[id] = true;
+    size++;
+    int columnEnd = column(right);
+    int rowEnd = row(bottom);
+    for (int row = row(top); row <= rowEnd; row++) {
+      for (int column = column(left); column <= columnEnd; column++) {
+        addToCell(row * columns + column, id);
+      }
+    }
+  }
+
+  // Remove the rectangle stored under the given id, if there is one
+  public void remove(int id) {
+    if (!contains(id)) {
+      return;
+    }
+    present[id] = false;
+    size--;
+    int columnEnd = column(rights[id]);
+    int rowEnd = row(bottoms[id]);
+    for (int row = row(tops[id]); row <= rowEnd; row++) {
+      for (int column = column(lefts[id]); column <= columnEnd; column++) {
+        removeFromCell(row * columns + column, id);
+      }
+    }
+  }
+
+  // Move the rectangle stored under an id to a new area
+  public void update(int id, @NotNull Rect area) {
+    update(id, area.left, area.top, area.right, area.bottom);
+  }
+
+  public void update(int id, int left, int top, int right, int bottom) {
+    remove(id);
+    insert(id, left, top, right, bottom);
+  }
+
+  // GETTER METHODS
+
+  public boolean contains(int id) {
+    return id >= 0 && id < present.length && present[id];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Copy the rectangle stored under an id into 'area' (returns false if there is none)
+  public boolean getArea(int id, @NotNull Rect area) {
+    if (!contains(id)) {
+      return false;
+    }
+    area.set(lefts[id], tops[id], rights[id], bottoms[id]);
+    return true;
+  }
+
+  // Collect the ids of every stored rectangle that intersects the area (strictly, like
+  // Rect.intersects), in no particular order
+  public void query(@NotNull Rect area, @NotNull Hits hits) {
+    query(area.left, area.top, area.right, area.bottom, hits);
+  }
+
+  public void query(int left, int top, int right, int bottom, @NotNull Hits hits) {
+    hits.clear();
+    if (left >= right || top >= bottom) {
+      return;
+    }
+    nextStamp();
+    int columnEnd = column(right);
+    int rowEnd = row(bottom);
+    for (int row = row(top); row <= rowEnd; row++) {
+      for (int column = column(left); column <= columnEnd; column++) {
+        int cell = row * columns + column;
+        int[] ids = cells[cell];
+        for (int i = 0; i < cellCounts[cell]; i++) {
+          int id = ids[i];
+          if (stamps[id] != currentStamp) {
+            stamps[id] = currentStamp;
+            if (lefts[id] < right
+                && left < rights[id]
+                && tops[id] < bottom
+                && top < bottoms[id]) {
+              hits.add(id);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // The same as query(), but writing nothing to the grid (so a grid that is no longer being
+  // changed can be searched from any thread): an id that spans several cells is only reported
+  // from the first of them that the area covers, rather than being stamped
+  public void search(int left, int top, int right, int bottom, @NotNull Hits hits) {
+    hits.clear();
+    if (left >= right || top >= bottom) {
+      return;
+    }
+    int columnStart = column(left);
+    int rowStart = row(top);
+    int columnEnd = column(right);
+    int rowEnd = row(bottom);
+    for (int row = rowStart; row <= rowEnd; row++) {
+      for (int column = columnStart; column <= columnEnd; column++) {
+        int cell = row * columns + column;
+        int[] ids = cells[cell];
+        for (int i = 0; i < cellCounts[cell]; i++) {
+          int id = ids[i];
+          if (Math.max(column(lefts[id]), columnStart) == column
+              && Math.max(row(tops[id]), rowStart) == row
+              && lefts[id] < right
+              && left < rights[id]
+              && tops[id] < bottom
+              && top < bottoms[id]) {
+            hits.add(id);
+          }
+        }
+      }
+    }
+  }
+
+  // Find the lowest id whose rectangle contains the point (like Rect.contains), or -1 if there is
+  // none.  Only the point's own cell is looked at and nothing is written, so a grid that is no
+  // longer being changed can be searched from any thread.
+  public int find(int x, int y) {
+    int cell = row(y) * columns + column(x);
+    int[] ids = cells[cell];
+    int found = -1;
+    for (int i = 0; i < cellCounts[cell]; i++) {
+      int id = ids[i];
+      if ((found < 0 || id < found)
+          && lefts[id] < rights[id]
+          && tops[id] < bottoms[id]
+          && x >= lefts[id]
+          && x < rights[id]
+          && y >= tops[id]
+          && y < bottoms[id]) {
+        found = id;
+      }
+    }
+    return found;
+  }
+
+  // PRIVATE HELPER METHODS
+
+  private int column(int x) {
+    return Math.min(columns - 1, Math.max(0, x / cellSize));
+  }
+
+  private int row(int y) {
+    return Math.min(rows - 1, Math.max(0, y / cellSize));
+  }
+
+  private void addToCell(int cell, int id) {
+    int[] ids = cells[cell];
+    if (ids == null) {
+      ids = new int[initialCellCapacity];
+      cells[cell] = ids;
+    } else if (cellCounts[cell] == ids.length) {
+      ids = Arrays.copyOf(ids, ids.length * 2);
+      cells[cell] = ids;
+    }
+    ids[cellCounts[cell]++] = id;
+  }
+
+  private void removeFromCell(int cell, int id) {
+    int[] ids = cells[cell];
+    int count = cellCounts[cell];
+    for (int i = 0; i < count; i++) {
+      if (ids[i] == id) {
+        ids[i] = ids[count - 1]; // order within a cell does not matter
+        cellCounts[cell] = count - 1;
+        return;
+      }
+    }
+  }
+
+  private void nextStamp() {
+    currentStamp++;
+    if (currentStamp == 0) { // wrapped around, so old stamps could collide
+      Arrays.fill(stamps, 0);
+      currentStamp = 1;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > present.length) {
+      int newCapacity = Math.max(capacity, present.length * 2);
+      lefts = Arrays.copyOf(lefts, newCapacity);
+      tops = Arrays.copyOf(tops, newCapacity);
+      rights = Arrays.copyOf(rights, newCapacity);
+      bottoms = Arrays.copyOf(bottoms, newCapacity);
+      present = Arrays.copyOf(present, newCapacity);
+      stamps = Arrays.copyOf(stamps, newCapacity);
+    }
+  }
+
+  // Reusable, growable list of ids returned by a query (avoids allocating on every lookup)
+  public static class Hits {
+
+    private int[] ids = new int[initialCapacity];
+    private int size = 0;
+
+    public int size() {
+      return size;
+    }
+
+    public int get(int index) {
+      return ids[index];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+  }
+}
@@ -3,14 +3,37 @@ package com.rsquared.taskmaster;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.Collections;
-
-// This class for task groups, and is much like the task class
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// This class for task groups, and is much like the task class.  The tasks are kept sorted by
+// importance, with running totals for the averages and a set of members, so adding or removing a
+// task never has to go through the whole group.  A task is placed and counted by the values it
+// had when it was added (so re-rate a task by removing it and adding it again).
 public class TaskGroup {
 
+  // Order of the tasks in a group: by importance (ties broken by urgency, then label, so the order
+  // does not depend on the order in which the group was put together)
+  public static final Comparator<TaskLayout.TaskState> taskOrder =
+      (TaskLayout.TaskState s1, TaskLayout.TaskState s2) -> {
+        if (s1.importance != s2.importance) {
+          return s2.importance - s1.importance; // Descending
+        }
+        if (s1.urgency != s2.urgency) {
+          return s2.urgency - s1.urgency; // Descending
+        }
+        return s1.label.compareTo(s2.label);
+      };
+
   // PRIVATE MEMBERS
 
   private final ArrayList<Task> tasks = new ArrayList<>();
+  private final ArrayList<TaskLayout.TaskState> states = new ArrayList<>(); // values of each task
+  private final Map<Task, TaskLayout.TaskState> members = new IdentityHashMap<>();
+  private long importanceSum;
+  private long urgencySum;
   private String label;
   private int averageImportance;
   private int averageUrgency;
@@ -23,43 +46,86 @@ public class TaskGroup {
     for (Task task : tasks) {
       addTask(task);
     }
+    combine();
+  }
+
+  // Initialize with the values of tasks that are already sorted into taskOrder (by the layout
+  // thread, which works from copies of the tasks' values rather than the tasks themselves)
+  public TaskGroup(@NotNull List<TaskLayout.TaskState> sortedStates) {
+    tasks.ensureCapacity(sortedStates.size());
+    states.ensureCapacity(sortedStates.size());
+    for (TaskLayout.TaskState state : sortedStates) {
+      tasks.add(state.task);
+      states.add(state);
+      members.put(state.task, state);
+      importanceSum += state.importance;
+      urgencySum += state.urgency;
+    }
+    combine();
   }
 
   // SETTER METHODS
 
-  // Create a list of groups
+  // Add a task (unless it is already in the group), in its place in the order
   public void addTask(@NotNull Task newTask) {
-    boolean addTask = true;
-    for (Task task : tasks) {
-      if (newTask == task) {
-        addTask = false;
-        break;
-      }
+    addTask(new TaskLayout.TaskState(newTask));
+  }
+
+  public void addTask(@NotNull TaskLayout.TaskState state) {
+    if (members.containsKey(state.task)) {
+      return;
     }
-    if (addTask) {
-      tasks.add(newTask);
-      combine();
+    int index = findFirst(state);
+    while (index < states.size() && taskOrder.compare(states.get(index), state) == 0) {
+      index++; // after any tasks that sort the same, like a stable sort
     }
+    tasks.add(index, state.task);
+    states.add(index, state);
+    members.put(state.task, state);
+    importanceSum += state.importance;
+    urgencySum += state.urgency;
+    combine();
   }
 
-  // Get average urgency and importance from individual tasks, and sort by importance
-  private void combine() {
-    averageImportance = 0;
-    averageUrgency = 0;
-    for (Task task : tasks) {
-      averageImportance += task.getImportance();
-      averageUrgency += task.getUrgency();
+  // Take a task out of the group, and return whether it was in it
+  public boolean removeTask(@NotNull Task task) {
+    TaskLayout.TaskState state = members.remove(task);
+    if (state == null) {
+      return false;
+    }
+    int index = findFirst(state);
+    while (tasks.get(index) != task) {
+      index++; // among the tasks that sort the same
     }
-    averageImportance = averageImportance / tasks.size();
-    averageUrgency = averageUrgency / tasks.size();
+    tasks.remove(index);
+    states.remove(index);
+    importanceSum -= state.importance;
+    urgencySum -= state.urgency;
+    combine();
+    return true;
+  }
 
-    Collections.sort(
-        tasks,
-        (Task t1, Task t2) -> {
-          return t2.getImportance() - t1.getImportance(); // Descending
-        });
+  // Position of the first task that does not sort before the given values (binary search)
+  private int findFirst(@NotNull TaskLayout.TaskState state) {
+    int low = 0;
+    int high = states.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (taskOrder.compare(states.get(middle), state) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
 
-    label = tasks.size() + " tasks";
+  // Get average urgency and importance from the running totals
+  private void combine() {
+    int size = tasks.size();
+    averageImportance = size == 0 ? 0 : (int) (importanceSum / size);
+    averageUrgency = size == 0 ? 0 : (int) (urgencySum / size);
+    label = size + " tasks";
   }
 
   public void setTaskGraphic(TaskGraphic newTaskGraphic) {
@@ -89,11 +155,6 @@ public class TaskGroup {
   }
 
   public boolean isTaskInGroup(Task task) {
-    for (Task checkTask : tasks) {
-      if (task == checkTask) {
-        return true;
-      }
-    }
-    return false;
+    return members.containsKey(task);
   }
 }
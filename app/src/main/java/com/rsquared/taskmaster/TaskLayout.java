@@ -0,0 +1,577 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Rect;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+// Works out the arrangement of tasks on the canvas (which tasks are drawn on their own, which are
+// nudged apart and which are collapsed into groups) and keeps it up to date as tasks change.
+// A change only re-lays-out the neighbourhood of the changed tasks: every task or group that
+// could be grouped with them, or whose nudging could have been blocked by them.
+// Only ever used from the layout thread (see TaskLayoutWorker), and only reads the task values
+// captured in TaskState objects, never the tasks themselves.
+public class TaskLayout {
+
+  // PRIVATE MEMBERS
+
+  // Groups reaching further and further out are re-checked only so many times per change
+  private static final int maxRelayoutPasses = 8;
+  private static final int initialCapacity = 16;
+  private static final int cancelCheckInterval = 256; // tasks laid out between cancel checks
+
+  // What is drawn: tasks on their own (including nudged ones) and collapsed groups
+  private final Set<Task> tasks = new HashSet<>();
+  private final Set<TaskGroup> taskGroups = new HashSet<>();
+
+  // Every task is given a slot, which is its id in the grid of "home" touch areas (the touch area
+  // at the task's own urgency and importance, before any nudging)
+  private final Map<Task, Integer> slots = new HashMap<>();
+  private final ArrayList<Task> slotTasks = new ArrayList<>();
+  private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+  private TaskState[] states = new TaskState[initialCapacity]; // values each slot was laid out with
+  private final TaskGraphicBuffer homeGraphics = new TaskGraphicBuffer(initialCapacity);
+  private int[] nudges = new int[initialCapacity]; // how far each slot is shown below its home
+
+  // Every group of overlapping tasks (whether nudged apart or collapsed) is a cluster, indexed by
+  // its group graphic and by its footprint (the area its tasks take up, or would, once nudged)
+  private final Map<Task, TaskGroup> clusters = new HashMap<>();
+  private final Map<TaskGroup, Integer> clusterIds = new HashMap<>();
+  private final ArrayList<TaskGroup> clusterGroups = new ArrayList<>();
+  private final ArrayDeque<Integer> freeClusterIds = new ArrayDeque<>();
+
+  private TaskGeometry geometry;
+  private TaskGrid homeGrid;
+  private TaskGrid clusterGrid;
+  private TaskGrid footprintGrid;
+  private final TaskGrid.Hits hits = new TaskGrid.Hits();
+  private final Rect oldArea = new Rect();
+  private final Rect homeArea = new Rect();
+
+  // Working sets for a re-layout
+  private final Map<Task, TaskState> changedStates = new LinkedHashMap<>();
+  private final Set<Task> affected = new LinkedHashSet<>();
+  private final ArrayDeque<Task> queue = new ArrayDeque<>();
+  private final Map<Rect, Integer> vacatedAreas = new HashMap<>(); // blocking areas now gone
+
+  // LAYOUT
+
+  // Whether there is a layout that changes can be applied to (for the given canvas geometry)
+  public boolean isBuiltFor(TaskGeometry newGeometry) {
+    return geometry != null && geometry.sameLayoutAs(newGeometry);
+  }
+
+  // Number of tasks laid out (those in the viewport)
+  public int getTaskCount() {
+    return slots.size();
+  }
+
+  // Throw away the layout, so the next one is worked out from scratch
+  public void invalidate() {
+    geometry = null;
+  }
+
+  // Lay out every task on the canvas from scratch (cancellable, because this is the slow case).
+  // Tasks outside the geometry's viewport are left out entirely.
+  public void rebuild(@NotNull TaskGeometry newGeometry, @NotNull Collection<TaskState> allStates,
+      @NotNull CancelSignal cancelSignal) {
+    geometry = newGeometry;
+    int cellSize = geometry.getGridCellSize();
+    homeGrid = new TaskGrid(geometry.getWidth(), geometry.getHeight(), cellSize);
+    clusterGrid = new TaskGrid(geometry.getWidth(), geometry.getHeight(), cellSize);
+    footprintGrid = new TaskGrid(geometry.getWidth(), geometry.getHeight(), cellSize);
+    tasks.clear();
+    taskGroups.clear();
+    slots.clear();
+    slotTasks.clear();
+    freeSlots.clear();
+    clusters.clear();
+    clusterIds.clear();
+    clusterGroups.clear();
+    freeClusterIds.clear();
+    Arrays.fill(states, null);
+    changedStates.clear();
+    affected.clear();
+    queue.clear();
+    vacatedAreas.clear();
+    for (TaskState state : allStates) {
+      if (geometry.isVisible(state.urgency, state.importance)) {
+        changedStates.put(state.task, state);
+      }
+    }
+    try {
+      relayout(cancelSignal);
+    } catch (CancellationException e) {
+      invalidate();
+      throw e;
+    }
+  }
+
+  // Apply changed tasks (mapped to their new values, or to null if they were removed) and return
+  // whether the layout changed.  Changes that don't move or rename a task (checking it off) are
+  // skipped, and tasks moved out of the viewport are removed from the layout.
+  public boolean apply(@NotNull Map<Task, TaskState> changes) {
+    changedStates.clear();
+    List<Task> removedTasks = new ArrayList<>();
+    for (Map.Entry<Task, TaskState> change : changes.entrySet()) {
+      Integer slot = slots.get(change.getKey());
+      TaskState state = change.getValue();
+      if (state == null || !geometry.isVisible(state.urgency, state.importance)) {
+        if (slot != null) {
+          removedTasks.add(change.getKey());
+        }
+      } else if (slot == null || !state.sameLayoutAs(states[slot])) {
+        changedStates.put(state.task, state);
+      }
+    }
+    if (changedStates.isEmpty() && removedTasks.isEmpty()) {
+      return false;
+    }
+
+    // Removed tasks free up their neighbours, and then disappear
+    affected.clear();
+    queue.clear();
+    vacatedAreas.clear();
+    for (Task task : removedTasks) {
+      detach(task);
+      affected.remove(task);
+      queue.remove(task);
+      int slot = slots.remove(task);
+      homeGrid.remove(slot);
+      slotTasks.set(slot, null);
+      states[slot] = null;
+      freeSlots.push(slot);
+    }
+    relayout(null);
+    return true;
+  }
+
+  // Re-layout the changed tasks and everything they could affect
+  private void relayout(CancelSignal cancelSignal) {
+    for (Task task : changedStates.keySet()) {
+      pull(task);
+    }
+
+    // Spread out from each changed task to everything it could now be grouped with, group
+    // everything that was pulled in, and repeat while the new groups reach any further
+    TaskClusterer taskClusterer = new TaskClusterer(geometry);
+    List<TaskGroup> newGroups;
+    Set<Task> groupedTasks = new HashSet<>();
+    int pass = 0;
+    int laidOut = 0;
+    while (true) {
+      while (!queue.isEmpty()) {
+        if (cancelSignal != null
+            && ++laidOut % cancelCheckInterval == 0
+            && cancelSignal.isCancelled()) {
+          throw new CancellationException();
+        }
+        Task task = queue.poll();
+        detach(task);
+        int slot = getSlot(task);
+        TaskState state = changedStates.get(task);
+        if (state != null) {
+          states[slot] = state;
+        }
+        geometry.makeGraphic(
+            states[slot].label, states[slot].urgency, states[slot].importance, homeGraphics, slot);
+        nudges[slot] = 0;
+        homeGraphics.getTouchArea(slot, homeArea);
+        homeGrid.update(slot, homeArea);
+        pullNeighbours(homeArea);
+      }
+      TaskState[] affectedStates = new TaskState[affected.size()];
+      int[] affectedSlots = new int[affected.size()];
+      int a = 0;
+      for (Task task : affected) {
+        affectedSlots[a] = slots.get(task);
+        affectedStates[a] = states[affectedSlots[a]];
+        a++;
+      }
+      newGroups = taskClusterer.cluster(affectedStates, homeGraphics, affectedSlots);
+      if (++pass >= maxRelayoutPasses) {
+        break;
+      }
+      for (TaskGroup taskGroup : newGroups) {
+        homeGrid.query(taskGroup.getTaskGraphic().getTouchArea(), hits);
+        for (int h = 0; h < hits.size(); h++) {
+          pull(slotTasks.get(hits.get(h)));
+        }
+      }
+      if (!queue.isEmpty()) {
+        continue;
+      }
+
+      // Tasks on their own and group graphics are what block nudging, so clusters near any of
+      // those that appeared or disappeared have to be nudged (or not) again
+      groupedTasks.clear();
+      Map<Rect, Integer> changedAreas = new HashMap<>(vacatedAreas);
+      for (TaskGroup taskGroup : newGroups) {
+        groupedTasks.addAll(taskGroup.getTasks());
+        addArea(changedAreas, taskGroup.getTaskGraphic().getTouchArea(), -1);
+      }
+      for (Task task : affected) {
+        if (!groupedTasks.contains(task)) {
+          Rect area = new Rect();
+          homeGraphics.getTouchArea(slots.get(task), area);
+          addArea(changedAreas, area, -1);
+        }
+      }
+      for (Map.Entry<Rect, Integer> changedArea : changedAreas.entrySet()) {
+        if (changedArea.getValue() != 0) {
+          dissolveClustersIn(footprintGrid, changedArea.getKey());
+        }
+      }
+      if (queue.isEmpty()) {
+        break;
+      }
+    }
+
+    // Store the new clusters, then try to nudge each one apart (this needs every cluster in
+    // place, because the group graphics are in the way of each other's nudging)
+    for (TaskGroup taskGroup : newGroups) {
+      int id = freeClusterIds.isEmpty() ? clusterGroups.size() : freeClusterIds.pop();
+      if (id == clusterGroups.size()) {
+        clusterGroups.add(taskGroup);
+      } else {
+        clusterGroups.set(id, taskGroup);
+      }
+      clusterIds.put(taskGroup, id);
+      clusterGrid.insert(id, taskGroup.getTaskGraphic().getTouchArea());
+      for (Task task : taskGroup.getTasks()) {
+        clusters.put(task, taskGroup);
+      }
+    }
+    for (Task task : affected) {
+      if (!clusters.containsKey(task)) {
+        tasks.add(task);
+      }
+    }
+    for (TaskGroup taskGroup : newGroups) {
+      if (nudgeTasks(taskGroup)) {
+        tasks.addAll(taskGroup.getTasks()); // If nudging the tasks worked, no need for a group
+      } else {
+        taskGroups.add(taskGroup);
+      }
+    }
+    affected.clear();
+    vacatedAreas.clear();
+    changedStates.clear();
+  }
+
+  // This function moves ("nudges") a cluster's tasks so they are stacked next to each other but
+  // not overlapping, as long as they don't have to move too far and nothing is in the way.
+  // Whatever the answer, the area tested is remembered, so that the cluster is looked at again
+  // when something changes inside it.
+  private boolean nudgeTasks(@NotNull TaskGroup taskGroup) {
+    int id = clusterIds.get(taskGroup);
+    ArrayList<Task> groupTasks = taskGroup.getTasks();
+    int numTasks = groupTasks.size();
+    int[] groupSlots = new int[numTasks];
+    float[] baselines = new float[numTasks];
+    for (int i = 0; i < numTasks; i++) {
+      groupSlots[i] = slots.get(groupTasks.get(i));
+      baselines[i] = homeGraphics.getBaseline(groupSlots[i]);
+    }
+    float[] groupNudges =
+        geometry.getNudges(taskGroup.getUrgency(), taskGroup.getImportance(), baselines);
+    for (float nudge : groupNudges) {
+      if (!geometry.isWithinNudgeLimit(nudge)) {
+        return false;
+      }
+    }
+
+    // Work out where each task would be.  The tasks are stacked in order, so these test areas are
+    // sorted by their vertical extents (tops and bottoms both only go down the list).
+    int[] testLefts = new int[numTasks];
+    int[] testTops = new int[numTasks];
+    int[] testRights = new int[numTasks];
+    int[] testBottoms = new int[numTasks];
+    int left = Integer.MAX_VALUE;
+    int right = Integer.MIN_VALUE;
+    for (int i = 0; i < numTasks; i++) {
+      int dy = (int) groupNudges[i];
+      testLefts[i] = homeGraphics.getLeft(groupSlots[i]);
+      testTops[i] = homeGraphics.getTop(groupSlots[i]) + dy;
+      testRights[i] = homeGraphics.getRight(groupSlots[i]);
+      testBottoms[i] = homeGraphics.getBottom(groupSlots[i]) + dy;
+      left = Math.min(left, testLefts[i]);
+      right = Math.max(right, testRights[i]);
+    }
+    int top = testTops[0];
+    int bottom = testBottoms[numTasks - 1];
+    footprintGrid.update(id, left, top, right, bottom);
+
+    // Test dimensions to see if nudging would produce any unwanted overlap of graphics: look up
+    // everything near the whole stack at once, then check each blocking area against only the
+    // tasks whose vertical extents it crosses
+    homeGrid.query(left, top, right, bottom, hits);
+    for (int h = 0; h < hits.size(); h++) {
+      int slot = hits.get(h);
+      if (!clusters.containsKey(slotTasks.get(slot)) // only tasks on their own are in the way
+          && overlapsStack(
+              homeGraphics.getLeft(slot),
+              homeGraphics.getTop(slot),
+              homeGraphics.getRight(slot),
+              homeGraphics.getBottom(slot),
+              testLefts,
+              testTops,
+              testRights,
+              testBottoms)) {
+        return false;
+      }
+    }
+    clusterGrid.query(left, top, right, bottom, hits);
+    for (int h = 0; h < hits.size(); h++) {
+      int otherId = hits.get(h);
+      if (otherId != id && clusterGrid.getArea(otherId, oldArea)
+          && overlapsStack(
+              oldArea.left,
+              oldArea.top,
+              oldArea.right,
+              oldArea.bottom,
+              testLefts,
+              testTops,
+              testRights,
+              testBottoms)) {
+        return false;
+      }
+    }
+
+    // If the tests were passed, then show each task at its unoccupied location
+    for (int i = 0; i < numTasks; i++) {
+      nudges[groupSlots[i]] = (int) groupNudges[i];
+    }
+    return true;
+  }
+
+  // Whether an area overlaps any area of a stack (sorted by vertical extents, as above): a binary
+  // search finds the first area reaching below the top of the given one, and the scan stops at
+  // the first area starting below its bottom
+  private static boolean overlapsStack(
+      int left,
+      int top,
+      int right,
+      int bottom,
+      int @NotNull [] stackLefts,
+      int @NotNull [] stackTops,
+      int @NotNull [] stackRights,
+      int @NotNull [] stackBottoms) {
+    int low = 0;
+    int high = stackBottoms.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (stackBottoms[middle] <= top) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    for (int i = low; i < stackTops.length && stackTops[i] < bottom; i++) {
+      if (stackLefts[i] < right && left < stackRights[i] && top < stackBottoms[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Copy out the current layout for drawing, with touch areas indexed for touch response
+  public @NotNull TaskLayoutSnapshot snapshot() {
+    int width = geometry.getWidth();
+    int height = geometry.getHeight();
+    int cellSize = geometry.getGridCellSize();
+    Task[] shownTasks = new Task[tasks.size()];
+    TaskGraphicBuffer shownTaskGraphics = new TaskGraphicBuffer(tasks.size());
+    TaskGrid taskGrid = new TaskGrid(width, height, cellSize);
+    int i = 0;
+    for (Task task : tasks) {
+      int slot = slots.get(task);
+      shownTasks[i] = task;
+      shownTaskGraphics.copy(i, homeGraphics, slot, nudges[slot]);
+      taskGrid.insert(
+          i,
+          shownTaskGraphics.getLeft(i),
+          shownTaskGraphics.getTop(i),
+          shownTaskGraphics.getRight(i),
+          shownTaskGraphics.getBottom(i));
+      i++;
+    }
+    TaskGroup[] shownTaskGroups = taskGroups.toArray(new TaskGroup[0]);
+    TaskGrid taskGroupGrid = new TaskGrid(width, height, cellSize);
+    for (int g = 0; g < shownTaskGroups.length; g++) {
+      taskGroupGrid.insert(g, shownTaskGroups[g].getTaskGraphic().getTouchArea());
+    }
+    int[] groupStarts = new int[shownTaskGroups.length];
+    int numGroupedTasks = 0;
+    for (int g = 0; g < shownTaskGroups.length; g++) {
+      groupStarts[g] = numGroupedTasks;
+      numGroupedTasks += shownTaskGroups[g].getTasks().size();
+    }
+    Task[] groupedTasks = new Task[numGroupedTasks];
+    TaskGraphicBuffer groupedTaskGraphics = new TaskGraphicBuffer(numGroupedTasks);
+    i = 0;
+    for (TaskGroup taskGroup : shownTaskGroups) {
+      for (Task task : taskGroup.getTasks()) {
+        groupedTasks[i] = task;
+        groupedTaskGraphics.copy(i, homeGraphics, slots.get(task), 0);
+        i++;
+      }
+    }
+    return new TaskLayoutSnapshot(
+        shownTasks,
+        shownTaskGraphics,
+        shownTaskGroups,
+        groupStarts,
+        groupedTasks,
+        groupedTaskGraphics,
+        taskGrid,
+        taskGroupGrid,
+        geometry);
+  }
+
+  // PRIVATE HELPER METHODS
+
+  // Queue a task to be laid out again
+  private void pull(@NotNull Task task) {
+    if (affected.add(task)) {
+      queue.add(task);
+    }
+  }
+
+  // Pull in everything that could be grouped with whatever is in the given area: tasks that
+  // overlap it and groups whose graphic overlaps it
+  private void pullNeighbours(@NotNull Rect area) {
+    homeGrid.query(area, hits);
+    for (int h = 0; h < hits.size(); h++) {
+      pull(slotTasks.get(hits.get(h)));
+    }
+    dissolveClustersIn(clusterGrid, area);
+  }
+
+  // Take a task out of the drawn layout, breaking up its cluster if it was in one, and remember
+  // the area it was blocking if it was on its own
+  private void detach(@NotNull Task task) {
+    tasks.remove(task);
+    TaskGroup taskGroup = clusters.remove(task);
+    if (taskGroup != null) {
+      dissolve(taskGroup);
+    } else {
+      Integer slot = slots.get(task);
+      if (slot != null && homeGrid.getArea(slot, oldArea)) {
+        addArea(vacatedAreas, new Rect(oldArea), 1);
+      }
+    }
+  }
+
+  private void dissolveClustersIn(@NotNull TaskGrid grid, @NotNull Rect area) {
+    grid.query(area, hits);
+    for (int h = 0; h < hits.size(); h++) {
+      TaskGroup taskGroup = clusterGroups.get(hits.get(h));
+      if (taskGroup != null) {
+        dissolve(taskGroup);
+      }
+    }
+  }
+
+  // Break up a cluster, queueing its tasks to be laid out again, and remember the area its group
+  // graphic was blocking
+  private void dissolve(@NotNull TaskGroup taskGroup) {
+    Integer id = clusterIds.remove(taskGroup);
+    if (id == null) {
+      return;
+    }
+    clusterGroups.set(id, null);
+    freeClusterIds.push(id);
+    taskGroups.remove(taskGroup);
+    if (clusterGrid.getArea(id, oldArea)) {
+      addArea(vacatedAreas, new Rect(oldArea), 1);
+    }
+    clusterGrid.remove(id);
+    footprintGrid.remove(id);
+    for (Task task : taskGroup.getTasks()) {
+      tasks.remove(task);
+      pull(task);
+    }
+  }
+
+  // Count an area in or out of a tally of areas (so areas that come and go cancel out)
+  private static void addArea(@NotNull Map<Rect, Integer> areas, @NotNull Rect area, int count) {
+    Integer total = areas.get(area);
+    total = (total == null ? 0 : total) + count;
+    if (total == 0) {
+      areas.remove(area);
+    } else {
+      areas.put(area, total);
+    }
+  }
+
+  private int getSlot(@NotNull Task task) {
+    Integer slot = slots.get(task);
+    if (slot == null) {
+      slot = freeSlots.isEmpty() ? slotTasks.size() : freeSlots.pop();
+      if (slot == slotTasks.size()) {
+        slotTasks.add(task);
+      } else {
+        slotTasks.set(slot, task);
+      }
+      slots.put(task, slot);
+      if (slot >= states.length) {
+        int capacity = Math.max(slot + 1, states.length * 2);
+        states = Arrays.copyOf(states, capacity);
+        nudges = Arrays.copyOf(nudges, capacity);
+        homeGraphics.ensureCapacity(capacity);
+      }
+    }
+    return slot;
+  }
+
+  // Lets a long layout be abandoned when a newer one has been asked for
+  public interface CancelSignal {
+    boolean isCancelled();
+  }
+
+  // The values of a task that its place in the layout depends on, captured on the user interface
+  // thread so the layout thread never reads a task while it is being changed
+  public static final class TaskState {
+
+    public final Task task;
+    public final String label;
+    public final int urgency;
+    public final int importance;
+
+    public TaskState(@NotNull Task task) {
+      this.task = task;
+      label = task.getLabel();
+      urgency = task.getUrgency();
+      importance = task.getImportance();
+    }
+
+    // Values the task does not have (yet), such as where it would be dropped
+    public TaskState(@NotNull Task task, @NotNull String label, int urgency, int importance) {
+      this.task = task;
+      this.label = label;
+      this.urgency = urgency;
+      this.importance = importance;
+    }
+
+    // Whether a task with these values would be laid out the same as with the other values
+    public boolean sameLayoutAs(TaskState other) {
+      return other != null
+          && urgency == other.urgency
+          && importance == other.importance
+          && label.equals(other.label);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.rsquared.taskmaster;
+
+import org.jetbrains.annotations.NotNull;
+
+// Finished layout of the task canvas, handed from the layout thread to the user interface thread.
+// Nothing in it is changed after it has been made, so it can be drawn from while the next layout
+// is being worked out.
+public final class TaskLayoutSnapshot {
+
+  // Tasks drawn on their own (including nudged tasks), with the graphic to draw each one with
+  // (entry i of the buffer belongs to task i)
+  public final Task[] tasks;
+  public final TaskGraphicBuffer taskGraphics;
+
+  // Collapsed groups (each with its own graphic), and the tasks in them with their graphics.  The
+  // tasks of group g are listed one after another, starting at groupStarts[g].
+  public final TaskGroup[] taskGroups;
+  public final int[] groupStarts;
+  public final Task[] groupedTasks;
+  public final TaskGraphicBuffer groupedTaskGraphics;
+
+  // Touch areas of the tasks drawn on their own and of the groups, indexed by position in the
+  // arrays above (only searched with TaskGrid.find(), which changes nothing)
+  public final TaskGrid taskGrid;
+  public final TaskGrid taskGroupGrid;
+
+  // Tasks counted by tile instead, when there are too many in view to show one by one (null when
+  // the tasks are laid out, and no tasks or groups are listed above when it is not)
+  public final TaskDensity taskDensity;
+
+  // Geometry that the layout was worked out for
+  public final TaskGeometry geometry;
+
+  public TaskLayoutSnapshot(
+      @NotNull Task[] tasks,
+      @NotNull TaskGraphicBuffer taskGraphics,
+      @NotNull TaskGroup[] taskGroups,
+      int @NotNull [] groupStarts,
+      @NotNull Task[] groupedTasks,
+      @NotNull TaskGraphicBuffer groupedTaskGraphics,
+      @NotNull TaskGrid taskGrid,
+      @NotNull TaskGrid taskGroupGrid,
+      @NotNull TaskGeometry geometry) {
+    this.tasks = tasks;
+    this.taskGraphics = taskGraphics;
+    this.taskGroups = taskGroups;
+    this.groupStarts = groupStarts;
+    this.groupedTasks = groupedTasks;
+    this.groupedTaskGraphics = groupedTaskGraphics;
+    this.taskGrid = taskGrid;
+    this.taskGroupGrid = taskGroupGrid;
+    this.taskDensity = null;
+    this.geometry = geometry;
+  }
+
+  // Tasks shown only as a density map
+  public TaskLayoutSnapshot(@NotNull TaskDensity taskDensity, @NotNull TaskGeometry geometry) {
+    this.tasks = new Task[0];
+    this.taskGraphics = new TaskGraphicBuffer(0);
+    this.taskGroups = new TaskGroup[0];
+    this.groupStarts = new int[0];
+    this.groupedTasks = new Task[0];
+    this.groupedTaskGraphics = new TaskGraphicBuffer(0);
+    this.taskGrid = new TaskGrid(geometry.getWidth(), geometry.getHeight(), geometry.getWidth());
+    this.taskGroupGrid = taskGrid;
+    this.taskDensity = taskDensity;
+    this.geometry = geometry;
+  }
+}
@@ -0,0 +1,214 @@
+package com.rsquared.taskmaster;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Works out the task layout on a background thread, so grouping and nudging a lot of tasks never
+// holds up drawing or touch response.  The user interface thread reports task changes and asks
+// for layouts; the layout thread applies all the changes reported since its last run in one go
+// and hands back a TaskLayoutSnapshot.  Only the latest request is answered: an older one still
+// waiting is skipped, and a full re-layout that is overtaken by a newer request is abandoned.
+public class TaskLayoutWorker {
+
+  // PRIVATE MEMBERS
+
+  // Only touched on the layout thread
+  private final TaskLayout taskLayout = new TaskLayout();
+  private TaskLayoutSnapshot lastSnapshot;
+
+  // Shared between threads (guarded by lock): the values of every task, the changes not yet laid
+  // out (a null value means the task was removed), and the geometry to lay out for
+  private final Object lock = new Object();
+  private final Map<Task, TaskLayout.TaskState> allStates = new HashMap<>();
+  private Map<Task, TaskLayout.TaskState> pendingChanges = new LinkedHashMap<>();
+  private boolean reloadPending = false;
+  private TaskGeometry pendingGeometry;
+
+  // Beyond this many tasks in view, they are shown as a density map rather than one by one
+  private volatile int densityTaskLimit = 1000;
+
+  // Number of the latest layout request (a layout is only published if it is still the latest)
+  private final AtomicInteger generation = new AtomicInteger();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  // Only touched on the user interface thread
+  private Listener listener;
+  private TaskLayoutSnapshot latestSnapshot;
+
+  // SETTER FUNCTIONS (USER INTERFACE THREAD)
+
+  public void taskAdded(@NotNull Task task) {
+    taskChanged(task);
+  }
+
+  // Add a number of tasks at once (such as a page loaded from the database)
+  public void tasksAdded(@NotNull Collection<Task> tasks) {
+    List<TaskLayout.TaskState> states = new ArrayList<>(tasks.size());
+    for (Task task : tasks) {
+      states.add(new TaskLayout.TaskState(task));
+    }
+    synchronized (lock) {
+      for (TaskLayout.TaskState state : states) {
+        allStates.put(state.task, state);
+        pendingChanges.put(state.task, state);
+      }
+    }
+  }
+
+  // Capture the task's values now, so the layout thread never reads a task being edited
+  public void taskChanged(@NotNull Task task) {
+    TaskLayout.TaskState state = new TaskLayout.TaskState(task);
+    synchronized (lock) {
+      allStates.put(task, state);
+      pendingChanges.put(task, state);
+    }
+  }
+
+  public void taskRemoved(@NotNull Task task) {
+    synchronized (lock) {
+      allStates.remove(task);
+      pendingChanges.put(task, null);
+    }
+  }
+
+  // Replace every task (after loading from the database), so the next layout starts from scratch
+  public void reload(@NotNull Collection<Task> tasks) {
+    List<TaskLayout.TaskState> states = new ArrayList<>(tasks.size());
+    for (Task task : tasks) {
+      states.add(new TaskLayout.TaskState(task));
+    }
+    synchronized (lock) {
+      allStates.clear();
+      for (TaskLayout.TaskState state : states) {
+        allStates.put(state.task, state);
+      }
+      pendingChanges.clear();
+      reloadPending = true;
+    }
+  }
+
+  // Ask for the tasks to be laid out for the given canvas geometry.  The listener is called on the
+  // user interface thread once the layout is ready (and replaces any earlier listener).
+  public void requestLayout(@NotNull TaskGeometry geometry, @NotNull Listener newListener) {
+    listener = newListener;
+    synchronized (lock) {
+      pendingGeometry = geometry;
+    }
+    int requestGeneration = generation.incrementAndGet();
+    executor.execute(() -> layout(requestGeneration));
+  }
+
+  // Change how many tasks may be in view before switching to a density map (applies from the next
+  // layout on)
+  public void setDensityTaskLimit(int limit) {
+    densityTaskLimit = limit;
+  }
+
+  public void removeListener(Listener oldListener) {
+    if (listener == oldListener) {
+      listener = null;
+    }
+  }
+
+  // Stop the layout thread (when the tasks are no longer needed)
+  public void shutdown() {
+    listener = null;
+    executor.shutdownNow();
+  }
+
+  // GETTER FUNCTIONS (USER INTERFACE THREAD)
+
+  // Last layout published (may be out of date, or null if there has not been one yet)
+  public TaskLayoutSnapshot getLatestSnapshot() {
+    return latestSnapshot;
+  }
+
+  // LAYOUT THREAD
+
+  private void layout(int requestGeneration) {
+    if (requestGeneration != generation.get()) {
+      return; // a newer request is queued behind this one and will include these changes
+    }
+
+    // Take everything reported so far (a full re-layout already includes any pending changes)
+    TaskGeometry geometry;
+    List<TaskLayout.TaskState> states = null;
+    Map<Task, TaskLayout.TaskState> changes;
+    synchronized (lock) {
+      geometry = pendingGeometry;
+      if (reloadPending || !taskLayout.isBuiltFor(geometry)) {
+        states = new ArrayList<>(allStates.values());
+        reloadPending = false;
+      }
+      changes = pendingChanges;
+      pendingChanges = new LinkedHashMap<>();
+    }
+
+    // Too many tasks in view (after an update, or when starting from scratch) means a density
+    // map instead, and the layout is thrown away until few enough are in view again
+    int limit = densityTaskLimit;
+    boolean changed = true;
+    TaskDensity taskDensity = null;
+    try {
+      if (states == null) {
+        changed = taskLayout.apply(changes);
+        if (taskLayout.getTaskCount() > limit) {
+          synchronized (lock) {
+            states = new ArrayList<>(allStates.values());
+          }
+        }
+      }
+      if (states != null) {
+        taskDensity = new TaskDensity(geometry, states);
+        if (taskDensity.getTaskCount() > limit) {
+          taskLayout.invalidate();
+        } else {
+          taskDensity = null;
+          taskLayout.rebuild(geometry, states, () -> requestGeneration != generation.get());
+        }
+      }
+    } catch (CancellationException e) {
+      return; // the layout was thrown away, so the newer request will start from scratch
+    }
+    if (taskDensity != null) {
+      lastSnapshot = new TaskLayoutSnapshot(taskDensity, geometry);
+    } else if (changed || lastSnapshot == null || lastSnapshot.taskDensity != null) {
+      lastSnapshot = taskLayout.snapshot();
+    }
+
+    // Even an unchanged layout is handed over, because a new view may be waiting for it
+    TaskLayoutSnapshot snapshot = lastSnapshot;
+    mainHandler.post(() -> publish(requestGeneration, snapshot));
+  }
+
+  // Back on the user interface thread: hand the layout to whoever asked, unless it is out of date
+  private void publish(int requestGeneration, @NotNull TaskLayoutSnapshot snapshot) {
+    if (requestGeneration != generation.get()) {
+      return;
+    }
+    latestSnapshot = snapshot;
+    if (listener != null) {
+      listener.onLayoutReady(snapshot);
+    }
+  }
+
+  // Receives finished layouts (on the user interface thread)
+  public interface Listener {
+    void onLayoutReady(@NotNull TaskLayoutSnapshot snapshot);
+  }
+}
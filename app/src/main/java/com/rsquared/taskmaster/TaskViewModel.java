@@ -1,28 +1,60 @@
 package com.rsquared.taskmaster;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 // View model class to hold all the active tasks, plus update or read from database
-// Note that task groups are not considered because they don't need to survive fragment changes
+// Note that the task layout (including task groups) is worked out by a background worker kept
+// here, so that it survives fragment changes, and only the tasks that changed in the meantime
+// have to be laid out again.  Changes are kept in memory straight away and saved to the database
+// in the background.  Tasks are loaded in the background too, and handed over a page at a time,
+// so they can be shown as they arrive.
 // Todo: add ability to revert to database values loaded upon start of app
 public class TaskViewModel extends AndroidViewModel {
 
   // PRIVATE MEMBERS
 
+  // How long after being completed tasks are moved into the archive
+  private static final long archiveAfterMillis = 30L * 24 * 60 * 60 * 1000; // 30 days
+
+  // Number of tasks loaded from the database at a time
+  private static final int loadPageSize = 200;
+
+  private static final String tag = "TaskViewModel";
+
   // Database object
   private final TaskDatabaseHelper taskDatabaseHelper =
       TaskDatabaseHelper.getInstance(this.getApplication());
   // List of tasks
   private final Set<Task> tasks = new HashSet<>();
-  private Set<TaskGroup> taskGroups = new HashSet<>();
+  // Saves changes to the database in the background
+  private final TaskWriteQueue taskWriteQueue = new TaskWriteQueue(taskDatabaseHelper);
+  // Works out the arrangement of the tasks on the task draw canvas
+  private final TaskLayoutWorker taskLayoutWorker = new TaskLayoutWorker();
   // An extra measure to assure that downloading data from the database only occurs once
   private boolean downloadTasksLocked = false;
+  // Whether every task has been loaded, and who to tell as pages of them arrive
+  private boolean allTasksLoaded = false;
+  private final List<LoadListener> loadListeners = new ArrayList<>();
+  // While loading, the IDs of the tasks held so far (a task changed or added since loading began
+  // may be read again by a later page, and is skipped), and the tasks added in the meantime (whose
+  // IDs are only known once they are saved)
+  private final Set<Long> loadedIDs = new HashSet<>();
+  private final List<Task> tasksAddedWhileLoading = new ArrayList<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
   // CONSTRUCTOR
 
@@ -36,30 +68,112 @@ public class TaskViewModel extends AndroidViewModel {
 
   public void addTask(Task task) {
     tasks.add(task);
-    taskDatabaseHelper.addTask(task);
+    if (!allTasksLoaded) {
+      tasksAddedWhileLoading.add(task);
+    }
+    taskLayoutWorker.taskAdded(task);
+    taskWriteQueue.addTask(task);
   }
 
   // Update a modified task in the database
   public void updateTask(Task task) {
     // Since the Task object is actually just a pointer, we only need to update the database
-    taskDatabaseHelper.updateTask(task);
+    // (and let the layout know, in case the task moved or was renamed)
+    taskLayoutWorker.taskChanged(task);
+    taskWriteQueue.updateTask(task);
   }
 
-  // Store all incomplete tasks from the database to the task list array (used at the beginning)
+  // Wait until every change so far is saved to the database (when the app is stopped).  Returns
+  // false if they could not be saved (they are tried again later, but only kept in memory).
+  public boolean flushWrites() {
+    return taskWriteQueue.flush();
+  }
+
+  // Store all incomplete tasks from the database to the task list array (used at the beginning),
+  // then archive tasks completed long ago.  The database is opened and read on the database
+  // thread, so this returns straight away: tasks are read a page at a time, and each page is added
+  // here and to the layout (on the user interface thread) as soon as it is read.
   public void downloadIncompleteTasks() {
     if (!downloadTasksLocked) {
       tasks.clear();
-      taskGroups.clear();
-      tasks.addAll(taskDatabaseHelper.getTasks(true));
+      loadedIDs.clear();
+      tasksAddedWhileLoading.clear();
+      taskLayoutWorker.reload(tasks);
+      taskWriteQueue.execute(() -> loadPage(null));
       downloadTasksLocked = true;
+      taskWriteQueue.archiveCompletedTasks(System.currentTimeMillis() - archiveAfterMillis);
+    }
+  }
+
+  // Read the page of incomplete tasks after the given one (on the database thread), then queue the
+  // next page as a job of its own, so that waiting for the database thread (such as to save
+  // changes when the app stops) never means waiting for more than one page.  If the database
+  // cannot be read, loading ends there, with the tasks loaded so far.
+  private void loadPage(Task after) {
+    List<Task> page;
+    try {
+      page = taskDatabaseHelper.loadTaskPage(true, after, loadPageSize);
+    } catch (RuntimeException e) {
+      Log.e(tag, "Could not load tasks", e);
+      mainHandler.post(() -> tasksLoaded(Collections.<Task>emptyList(), true));
+      return;
     }
+    boolean lastPage = page.size() < loadPageSize;
+    if (!lastPage) {
+      // (a copy, as the task itself may be changed before the next page is read)
+      Task last = page.get(page.size() - 1);
+      Task next =
+          new Task(
+              last.getID(),
+              last.getLabel(),
+              last.getUrgency(),
+              last.getImportance(),
+              last.getCompleted());
+      try {
+        taskWriteQueue.execute(() -> loadPage(next));
+      } catch (RejectedExecutionException e) {
+        return; // shut down along with the view model
+      }
+    }
+    mainHandler.post(() -> tasksLoaded(page, lastPage));
   }
 
-  public void deGroupTasks() {
-    for (TaskGroup taskGroup : taskGroups) {
-      tasks.addAll(taskGroup.getTasks());
+  // A page of tasks has been loaded (on the user interface thread)
+  private void tasksLoaded(@NonNull List<Task> page, boolean lastPage) {
+    for (Iterator<Task> iterator = tasksAddedWhileLoading.iterator(); iterator.hasNext(); ) {
+      Task addedTask = iterator.next();
+      if (addedTask.getID() != 0) { // (saved, so it may be read back from now on)
+        loadedIDs.add(addedTask.getID());
+        iterator.remove();
+      }
+    }
+    List<Task> newTasks = new ArrayList<>(page.size());
+    for (Task task : page) {
+      if (loadedIDs.add(task.getID())) {
+        newTasks.add(task);
+      }
+    }
+    tasks.addAll(newTasks);
+    taskLayoutWorker.tasksAdded(newTasks);
+    allTasksLoaded = lastPage;
+    if (lastPage) {
+      loadedIDs.clear();
+      tasksAddedWhileLoading.clear();
+    }
+    for (LoadListener loadListener : new ArrayList<>(loadListeners)) {
+      loadListener.onTasksLoaded(lastPage);
     }
-    taskGroups = new HashSet<>();
+  }
+
+  // Be told (on the user interface thread) each time a page of tasks has been loaded
+  public void addLoadListener(@NonNull LoadListener loadListener) {
+    if (!loadListeners.contains(loadListener)) {
+      loadListeners.add(loadListener);
+    }
+  }
+
+  public void removeLoadListener(LoadListener loadListener) {
+    loadListeners.remove(loadListener);
   }
 
   // GETTER FUNCTIONS
@@ -68,7 +182,34 @@ public class TaskViewModel extends AndroidViewModel {
     return tasks;
   }
 
-  public Set<TaskGroup> getTaskGroups() {
-    return taskGroups;
+  // Retrieve a page of archived (long completed) tasks, most recently archived first, after the
+  // last task of the previous page (or from the start, if null).  Reads the database, so call it
+  // off the user interface thread.
+  public List<Task> getArchivedTasks(Task after, int pageSize) {
+    return taskDatabaseHelper.getArchivedTasks(after, pageSize);
+  }
+
+  public TaskLayoutWorker getTaskLayoutWorker() {
+    return taskLayoutWorker;
+  }
+
+  // Whether every task has been loaded from the database yet
+  public boolean getAllTasksLoaded() {
+    return allTasksLoaded;
+  }
+
+  // CLEAN UP
+
+  // Stop the layout and database threads along with the view model (saving any changes first)
+  @Override
+  protected void onCleared() {
+    taskLayoutWorker.shutdown();
+    taskWriteQueue.shutdown();
+    super.onCleared();
+  }
+
+  // Receives word of tasks being loaded (on the user interface thread)
+  public interface LoadListener {
+    void onTasksLoaded(boolean allTasksLoaded);
   }
 }
@@ -0,0 +1,247 @@
+package com.rsquared.taskmaster;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Saves new and changed tasks to the database on a background thread, so that checking tasks off
+// or dragging them around never waits for the disk.  Writes are held back briefly and saved
+// together in one transaction, and a task changed several times in the meantime (or added and
+// then changed) is only written once, with its latest values.  An added task is given its row ID
+// once saved, and a change made before then still updates the right row.  One thread does all the
+// writing, in the order the changes were made, and flush() waits until everything so far is saved
+// (or says it could not be).  If a write fails (such as when the disk is full), its changes are
+// kept and tried again, waiting longer after each failure.  The same thread also loads the tasks
+// when the app starts, and moves tasks completed long ago into the archive, a batch at a time.
+public class TaskWriteQueue {
+
+  // PRIVATE MEMBERS
+
+  private static final long writeDelayMillis = 250; // how long changes are gathered for
+  // How long to wait before trying a failed write again (doubled after each failure, up to a limit)
+  private static final long firstRetryDelayMillis = 1000;
+  private static final long maxRetryDelayMillis = 60 * 1000;
+  private static final int archiveBatchSize = 200; // tasks archived per transaction
+  private static final String tag = "TaskWriteQueue";
+
+  private final TaskDatabaseHelper taskDatabaseHelper;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  // Writes waiting to be saved (guarded by lock), by task: a copy of the task's values when last
+  // changed, and whether it still has to be added rather than updated
+  private final Object lock = new Object();
+  private Map<Task, PendingWrite> pendingWrites = new LinkedHashMap<>();
+  private boolean writeScheduled = false;
+  private long retryDelayMillis = firstRetryDelayMillis;
+
+  // Row IDs of added tasks that have not been set on the tasks themselves yet (guarded by lock)
+  private final Map<Task, Long> newIDs = new HashMap<>();
+
+  // CONSTRUCTOR
+
+  public TaskWriteQueue(@NotNull TaskDatabaseHelper taskDatabaseHelper) {
+    this.taskDatabaseHelper = taskDatabaseHelper;
+  }
+
+  // SETTER FUNCTIONS (USER INTERFACE THREAD)
+
+  public void addTask(@NotNull Task task) {
+    enqueue(task, true);
+  }
+
+  public void updateTask(@NotNull Task task) {
+    enqueue(task, false);
+  }
+
+  // Save everything changed so far, and wait until it is saved (such as when the app is stopped).
+  // Returns false if it could not be saved, in which case the changes are only in memory until a
+  // later attempt succeeds.
+  public boolean flush() {
+    try {
+      return executor.submit(this::writePending).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  // Run other database work (such as loading a page of tasks) on the writing thread.  It never runs
+  // at the same time as a write, and changes made from now on are saved after it.
+  public void execute(@NotNull Runnable work) {
+    executor.execute(work);
+  }
+
+  // Move every task completed before a time (in milliseconds) into the archive, in the background.
+  // Each batch is its own short transaction, queued behind any writes waiting by then, so saving
+  // changes is never held up for long.
+  public void archiveCompletedTasks(long completedBefore) {
+    executor.execute(() -> archiveBatch(completedBefore));
+  }
+
+  // Save everything changed so far, then stop the writing thread
+  public void shutdown() {
+    flush();
+    executor.shutdown();
+  }
+
+  private void enqueue(@NotNull Task task, boolean isNew) {
+    Task values =
+        new Task(
+            task.getID(),
+            task.getLabel(),
+            task.getUrgency(),
+            task.getImportance(),
+            task.getCompleted());
+    synchronized (lock) {
+      PendingWrite pendingWrite = pendingWrites.get(task);
+      if (pendingWrite == null) {
+        pendingWrites.put(task, new PendingWrite(values, isNew));
+      } else {
+        pendingWrite.values = values; // (still added, if it had not been yet)
+      }
+      if (!writeScheduled) {
+        writeScheduled = true;
+        executor.schedule(this::writePending, writeDelayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  // Give added tasks their row IDs, along with any of their changes still waiting to be saved
+  private void setIDs(@NotNull List<Task> tasks, @NotNull long[] ids) {
+    synchronized (lock) {
+      for (int i = 0; i < ids.length; i++) {
+        Task task = tasks.get(i);
+        task.setID(ids[i]);
+        newIDs.remove(task);
+        PendingWrite pendingWrite = pendingWrites.get(task);
+        if (pendingWrite != null) {
+          pendingWrite.values.setID(ids[i]);
+        }
+      }
+    }
+  }
+
+  // WRITING THREAD
+
+  // Write everything waiting in one transaction, then give the added tasks their row IDs.  Returns
+  // whether everything was saved.
+  private boolean writePending() {
+    Map<Task, PendingWrite> writes;
+    List<Task> addedTasks = new ArrayList<>(); // (the tasks themselves, not copies)
+    List<Task> newTasks = new ArrayList<>();
+    List<Task> changedTasks = new ArrayList<>();
+    synchronized (lock) {
+      writes = pendingWrites;
+      pendingWrites = new LinkedHashMap<>();
+      writeScheduled = false;
+      for (Map.Entry<Task, PendingWrite> write : writes.entrySet()) {
+        PendingWrite pendingWrite = write.getValue();
+        if (pendingWrite.isNew) {
+          addedTasks.add(write.getKey());
+          newTasks.add(pendingWrite.values);
+        } else {
+          Long newID = newIDs.get(write.getKey()); // (changed before being given its ID)
+          if (newID != null) {
+            pendingWrite.values.setID(newID);
+          }
+          changedTasks.add(pendingWrite.values);
+        }
+      }
+    }
+    if (writes.isEmpty()) {
+      return true;
+    }
+    long[] ids;
+    try {
+      ids = taskDatabaseHelper.writeTasks(newTasks, changedTasks);
+    } catch (RuntimeException e) {
+      Log.e(tag, "Could not save " + writes.size() + " tasks, will try again", e);
+      requeue(writes);
+      return false;
+    }
+    synchronized (lock) {
+      retryDelayMillis = firstRetryDelayMillis;
+      for (int i = 0; i < ids.length; i++) {
+        newIDs.put(addedTasks.get(i), ids[i]);
+      }
+    }
+    if (ids.length > 0) {
+      mainHandler.post(() -> setIDs(addedTasks, ids));
+    }
+    return true;
+  }
+
+  // Put writes that failed back in the queue, and try again after a while (unless a write is due
+  // anyway).  A task changed again since keeps its newer values, but is still added if the failed
+  // write would have added it.
+  private void requeue(@NotNull Map<Task, PendingWrite> writes) {
+    synchronized (lock) {
+      Map<Task, PendingWrite> newerWrites = pendingWrites;
+      pendingWrites = new LinkedHashMap<>(writes);
+      for (Map.Entry<Task, PendingWrite> newerWrite : newerWrites.entrySet()) {
+        PendingWrite failedWrite = pendingWrites.get(newerWrite.getKey());
+        PendingWrite pendingWrite = newerWrite.getValue();
+        if (failedWrite != null && failedWrite.isNew && !pendingWrite.isNew) {
+          pendingWrite = new PendingWrite(pendingWrite.values, true);
+        }
+        pendingWrites.put(newerWrite.getKey(), pendingWrite);
+      }
+      if (!writeScheduled) {
+        try {
+          executor.schedule(this::writePending, retryDelayMillis, TimeUnit.MILLISECONDS);
+          writeScheduled = true;
+        } catch (RejectedExecutionException e) {
+          // Shut down: there is nothing left to try again on
+        }
+        retryDelayMillis = Math.min(2 * retryDelayMillis, maxRetryDelayMillis);
+      }
+    }
+  }
+
+  // Archive one batch, then queue the next if there may be more.  If the database cannot be
+  // written, archiving stops there (the rest are archived the next time the app starts).
+  private void archiveBatch(long completedBefore) {
+    int numArchived;
+    try {
+      numArchived = taskDatabaseHelper.archiveCompletedTasks(completedBefore, archiveBatchSize);
+    } catch (RuntimeException e) {
+      Log.e(tag, "Could not archive completed tasks", e);
+      return;
+    }
+    if (numArchived == archiveBatchSize) {
+      try {
+        executor.execute(() -> archiveBatch(completedBefore));
+      } catch (RejectedExecutionException e) {
+        // Shut down: the rest are archived the next time the app starts
+      }
+    }
+  }
+
+  // A task's values to write, and whether it is to be added
+  private static final class PendingWrite {
+
+    private Task values;
+    private final boolean isNew;
+
+    private PendingWrite(@NotNull Task values, boolean isNew) {
+      this.values = values;
+      this.isNew = isNew;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.rsquared.taskmaster;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+import org.jetbrains.annotations.NotNull;
+
+// Remembers how wide task labels are at a given text size, so that laying tasks out again (after a
+// drag, a rotation or opening a group popup) hardly ever has to measure text.  Shared by every
+// view and by the layout thread, and bounded by an estimate of the memory the entries take up,
+// dropping the least recently used labels first.
+public final class TextMeasureCache {
+
+  // PRIVATE MEMBERS
+
+  private static final int maxBytes = 256 * 1024;
+  private static final int entryOverheadBytes = 64; // key, boxed width and cache bookkeeping
+
+  private static final Paint paintMeasure = new Paint(); // only used under its own lock
+  private static final Rect rectText = new Rect(); // outlines the text (guarded by paintMeasure)
+
+  private static final LruCache<Key, Integer> widths =
+      new LruCache<Key, Integer>(maxBytes) {
+        @Override
+        protected int sizeOf(Key key, Integer width) {
+          return entryOverheadBytes + 2 * key.label.length();
+        }
+
+        @Override
+        protected Integer create(Key key) {
+          synchronized (paintMeasure) {
+            paintMeasure.setTextSize(key.textSize);
+            paintMeasure.getTextBounds(key.label, 0, key.label.length(), rectText);
+            return rectText.width();
+          }
+        }
+      };
+
+  private TextMeasureCache() {}
+
+  // GETTER FUNCTIONS
+
+  // Width of the label's text bounds at the given text size (the same as Paint.getTextBounds())
+  public static int getWidth(@NotNull String label, float textSize) {
+    return widths.get(new Key(label, textSize));
+  }
+
+  public static int getHitCount() {
+    return widths.hitCount();
+  }
+
+  public static int getMissCount() {
+    return widths.missCount();
+  }
+
+  // Cache key: a label at a text size
+  private static final class Key {
+
+    private final String label;
+    private final float textSize;
+
+    private Key(@NotNull String label, float textSize) {
+      this.label = label;
+      this.textSize = textSize;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return textSize == key.textSize && label.equals(key.label);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * label.hashCode() + Float.floatToIntBits(textSize);
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package com.rsquared.taskmaster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.rsquared.taskmaster.TaskDatabaseContract.DATABASE_VERSION;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_COMPLETED;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_COMPLETED_AT;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_IMPORTANCE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_TASK;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.COLUMN_NAME_URGENCY;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.CREATE_TABLE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INDEX_COMPLETED_AT;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INDEX_IMPORTANCE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INDEX_INCOMPLETE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INDEX_URGENCY;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.INSERT_TASK;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_PAGE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_PAGE_INCOMPLETE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_TABLE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.QUERY_TABLE_INCOMPLETE;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.TABLE_NAME;
+import static com.rsquared.taskmaster.TaskDatabaseContract.Table.UPDATE_TASK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs the schema migrations against SQLite on the development machine (through JDBC): upgrading
+// a version 1 database must keep every task, add the indexes and the archive, and leave the same
+// schema as a new database, and the indexes must actually be used by the queries they are for.
+// Also checks the statements that record completion times, archive completed tasks, and load
+// tasks a page at a time.
+public class TaskDatabaseMigrationTest {
+
+  private static final int numTasks = 500;
+
+  // Adding a task, as it was done in version 1
+  private static final String insertTaskVersion1 =
+      "INSERT INTO "
+          + TABLE_NAME
+          + " ("
+          + COLUMN_NAME_TASK
+          + ","
+          + COLUMN_NAME_URGENCY
+          + ","
+          + COLUMN_NAME_IMPORTANCE
+          + ","
+          + COLUMN_NAME_COMPLETED
+          + ") VALUES (?,?,?,?)";
+
+  // Every task, with only the columns there were in version 1
+  private static final String queryTasksVersion1 =
+      "SELECT _id,"
+          + COLUMN_NAME_TASK
+          + ","
+          + COLUMN_NAME_URGENCY
+          + ","
+          + COLUMN_NAME_IMPORTANCE
+          + ","
+          + COLUMN_NAME_COMPLETED
+          + " FROM "
+          + TABLE_NAME;
+
+  private Connection connection;
+
+  @Before
+  public void openDatabase() throws SQLException {
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+  }
+
+  @After
+  public void closeDatabase() throws SQLException {
+    connection.close();
+  }
+
+  @Test
+  public void upgradeKeepsTasksAndAddsIndexes() throws SQLException {
+    createVersion1WithTasks();
+    List<String> before = getRows(queryTasksVersion1);
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    assertEquals(numTasks, before.size());
+    assertEquals(before, getRows(queryTasksVersion1));
+    assertEquals(numTasks / 10, getRows(QUERY_TABLE_INCOMPLETE).size());
+    assertTrue(getIndexes().contains(INDEX_INCOMPLETE));
+    assertTrue(getIndexes().contains(INDEX_URGENCY));
+    assertTrue(getIndexes().contains(INDEX_IMPORTANCE));
+  }
+
+  @Test
+  public void upgradeWithoutPartialIndexesKeepsTasksAndAddsIndexes() throws SQLException {
+    createVersion1WithTasks();
+    List<String> before = getRows(queryTasksVersion1);
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, false);
+    assertEquals(before, getRows(queryTasksVersion1));
+    assertEquals(numTasks / 10, getRows(QUERY_TABLE_INCOMPLETE).size());
+    assertTrue(getIndexes().contains(INDEX_INCOMPLETE));
+    assertTrue(getIndexes().contains(INDEX_URGENCY));
+    assertTrue(getIndexes().contains(INDEX_IMPORTANCE));
+  }
+
+  @Test
+  public void upgradedDatabaseMatchesNewDatabase() throws SQLException {
+    createVersion1WithTasks();
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    List<String> upgradedSchema =
+        getRows("SELECT type, name, sql FROM sqlite_master ORDER BY name");
+    connection.close();
+
+    // Made the way TaskDatabaseHelper.onCreate() makes it
+    connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    execute(CREATE_TABLE);
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    assertEquals(
+        upgradedSchema, getRows("SELECT type, name, sql FROM sqlite_master ORDER BY name"));
+  }
+
+  @Test
+  public void queriesUseIndexes() throws SQLException {
+    for (boolean partialIndexesSupported : new boolean[] {true, false}) {
+      connection.close();
+      connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+      createVersion1WithTasks();
+      migrate(TaskDatabaseMigrations.FIRST_VERSION, partialIndexesSupported);
+      assertTrue(getQueryPlan(QUERY_TABLE_INCOMPLETE).contains(INDEX_INCOMPLETE));
+      assertTrue(
+          getQueryPlan(QUERY_TABLE + " WHERE urgency BETWEEN 10 AND 20").contains(INDEX_URGENCY));
+      assertTrue(
+          getQueryPlan(QUERY_TABLE + " WHERE importance BETWEEN 10 AND 20")
+              .contains(INDEX_IMPORTANCE));
+    }
+  }
+
+  @Test
+  public void upgradeStampsTasksAlreadyCompleted() throws SQLException {
+    createVersion1WithTasks();
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    assertEquals(
+        numTasks - numTasks / 10,
+        getRows(QUERY_TABLE + " WHERE " + COLUMN_NAME_COMPLETED_AT + " IS NOT NULL").size());
+    assertEquals(
+        getRows(QUERY_TABLE_INCOMPLETE + " ORDER BY _id"),
+        getRows(QUERY_TABLE + " WHERE " + COLUMN_NAME_COMPLETED_AT + " IS NULL ORDER BY _id"));
+    assertTrue(getIndexes().contains(INDEX_COMPLETED_AT));
+  }
+
+  @Test
+  public void completionTimeIsKeptUntilTaskIsUncompleted() throws SQLException {
+    execute(CREATE_TABLE);
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    try (PreparedStatement insert = connection.prepareStatement(INSERT_TASK)) {
+      bindTask(insert, "task", true);
+      insert.executeUpdate();
+    }
+    Long completedAt = getCompletedAt();
+    assertNotNull(completedAt);
+    execute("UPDATE " + TABLE_NAME + " SET " + COLUMN_NAME_COMPLETED_AT + "=1");
+    updateTask("renamed", true);
+    assertEquals(Long.valueOf(1), getCompletedAt()); // (not completed again)
+    updateTask("renamed", false);
+    assertNull(getCompletedAt());
+    updateTask("renamed", true);
+    assertTrue(getCompletedAt() >= completedAt);
+  }
+
+  @Test
+  public void archiveMovesOnlyOldCompletedTasks() throws SQLException {
+    createVersion1WithTasks();
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+    execute(
+        "UPDATE " + TABLE_NAME + " SET " + COLUMN_NAME_COMPLETED_AT + "=_id WHERE completed<>0");
+    int numToArchive =
+        getRows(QUERY_TABLE + " WHERE completed<>0 AND " + COLUMN_NAME_COMPLETED_AT + "<200")
+            .size();
+    List<String> incomplete = getRows(QUERY_TABLE_INCOMPLETE);
+
+    // In batches, as TaskWriteQueue does
+    int batchSize = 15;
+    int numArchived = 0;
+    int numInBatch;
+    do {
+      numInBatch = archiveBatch(200, batchSize);
+      numArchived += numInBatch;
+    } while (numInBatch == batchSize);
+    assertEquals(numToArchive, numArchived);
+    assertEquals(numTasks - numToArchive, getRows(QUERY_TABLE).size());
+    assertEquals(incomplete, getRows(QUERY_TABLE_INCOMPLETE));
+    assertEquals(0, getRows(QUERY_TABLE + " WHERE " + COLUMN_NAME_COMPLETED_AT + "<200").size());
+
+    // Paged back out, most recently archived (latest completed) first
+    List<String> archived = new ArrayList<>();
+    long before = Long.MAX_VALUE;
+    List<String> page;
+    do {
+      page = getArchivedPage(before, 7);
+      archived.addAll(page);
+      if (!page.isEmpty()) {
+        String last = page.get(page.size() - 1);
+        before = Long.parseLong(last.substring(0, last.indexOf('|')));
+      }
+    } while (page.size() == 7);
+    assertEquals(numToArchive, archived.size());
+    assertEquals(
+        getRows(
+            "SELECT * FROM " + TaskDatabaseContract.ArchiveTable.TABLE_NAME + " ORDER BY _id DESC"),
+        archived);
+  }
+
+  @Test
+  public void pagesReadEveryTaskOnce() throws SQLException {
+    createVersion1WithTasks();
+    migrate(TaskDatabaseMigrations.FIRST_VERSION, true);
+
+    // Incomplete tasks, by urgency, importance, then ID (bound as strings, as Android binds them)
+    List<String> incomplete = new ArrayList<>();
+    String[] arguments = {
+      Integer.toString(Integer.MIN_VALUE),
+      Integer.toString(Integer.MIN_VALUE),
+      Long.toString(Long.MIN_VALUE),
+      "7"
+    };
+    List<String> page;
+    do {
+      page = getPage(QUERY_PAGE_INCOMPLETE, arguments);
+      incomplete.addAll(page);
+      if (!page.isEmpty()) {
+        String[] last = page.get(page.size() - 1).split("\\|");
+        arguments[0] = last[2];
+        arguments[1] = last[3];
+        arguments[2] = last[0];
+      }
+    } while (page.size() == 7);
+    assertEquals(
+        getRows(
+            "SELECT _id,task,urgency,importance,completed FROM "
+                + TABLE_NAME
+                + " WHERE completed=0 ORDER BY urgency,importance,_id"),
+        incomplete);
+
+    // All tasks, by ID
+    List<String> all = new ArrayList<>();
+    arguments = new String[] {Long.toString(Long.MIN_VALUE), "9"};
+    do {
+      page = getPage(QUERY_PAGE, arguments);
+      all.addAll(page);
+      if (!page.isEmpty()) {
+        String last = page.get(page.size() - 1);
+        arguments[0] = last.substring(0, last.indexOf('|'));
+      }
+    } while (page.size() == 9);
+    assertEquals(getRows(queryTasksVersion1 + " ORDER BY _id"), all);
+  }
+
+  @Test
+  public void incompletePagesAreReadFromIndex() throws SQLException {
+    for (boolean partialIndexesSupported : new boolean[] {true, false}) {
+      connection.close();
+      connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+      createVersion1WithTasks();
+      migrate(TaskDatabaseMigrations.FIRST_VERSION, partialIndexesSupported);
+      String plan =
+          getPage("EXPLAIN QUERY PLAN " + QUERY_PAGE_INCOMPLETE, new String[] {"0", "0", "0", "7"})
+              .toString();
+      assertTrue(plan.contains(INDEX_INCOMPLETE));
+      assertFalse(plan.contains("TEMP B-TREE")); // (no sorting)
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownVersionIsRejected() {
+    TaskDatabaseMigrations.getStatements(DATABASE_VERSION, DATABASE_VERSION + 1, true);
+  }
+
+  // PRIVATE HELPER METHODS
+
+  // A version 1 database (as made before migrations), with one task in ten incomplete
+  private void createVersion1WithTasks() throws SQLException {
+    execute(CREATE_TABLE);
+    try (PreparedStatement insert = connection.prepareStatement(insertTaskVersion1)) {
+      for (int i = 0; i < numTasks; i++) {
+        insert.setString(1, "task " + i);
+        insert.setInt(2, i % 101);
+        insert.setInt(3, (i * 7) % 101);
+        insert.setInt(4, i % 10 == 0 ? 0 : 1);
+        insert.executeUpdate();
+      }
+    }
+  }
+
+  // Run the migrations the way TaskDatabaseHelper does
+  private void migrate(int fromVersion, boolean partialIndexesSupported) throws SQLException {
+    for (String statement :
+        TaskDatabaseMigrations.getStatements(
+            fromVersion, DATABASE_VERSION, partialIndexesSupported)) {
+      execute(statement);
+    }
+  }
+
+  private static void bindTask(PreparedStatement statement, String label, boolean completed)
+      throws SQLException {
+    statement.setString(1, label);
+    statement.setInt(2, 50);
+    statement.setInt(3, 50);
+    statement.setInt(4, completed ? 1 : 0);
+  }
+
+  private void updateTask(String label, boolean completed) throws SQLException {
+    try (PreparedStatement update = connection.prepareStatement(UPDATE_TASK)) {
+      bindTask(update, label, completed);
+      update.setLong(5, 1);
+      update.executeUpdate();
+    }
+  }
+
+  private Long getCompletedAt() throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery("SELECT " + COLUMN_NAME_COMPLETED_AT + " FROM " + TABLE_NAME)) {
+      resultSet.next();
+      long completedAt = resultSet.getLong(1);
+      return resultSet.wasNull() ? null : completedAt;
+    }
+  }
+
+  // Archive one batch, the way TaskDatabaseHelper.archiveCompletedTasks() does
+  private int archiveBatch(long completedBefore, int maxTasks) throws SQLException {
+    connection.setAutoCommit(false);
+    try (PreparedStatement archive =
+            connection.prepareStatement(TaskDatabaseContract.ArchiveTable.ARCHIVE_TASKS);
+        PreparedStatement delete =
+            connection.prepareStatement(TaskDatabaseContract.ArchiveTable.DELETE_ARCHIVED_TASKS)) {
+      archive.setLong(1, completedBefore);
+      archive.setInt(2, maxTasks);
+      int numCopied = archive.executeUpdate();
+      delete.setLong(1, completedBefore);
+      delete.setInt(2, maxTasks);
+      int numDeleted = delete.executeUpdate();
+      assertEquals(numCopied, numDeleted);
+      connection.commit();
+      return numDeleted;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  private List<String> getPage(String query, String[] arguments) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(query)) {
+      for (int i = 0; i < arguments.length; i++) {
+        statement.setString(i + 1, arguments[i]);
+      }
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return getRows(resultSet);
+      }
+    }
+  }
+
+  private List<String> getArchivedPage(long before, int pageSize) throws SQLException {
+    try (PreparedStatement query =
+        connection.prepareStatement(TaskDatabaseContract.ArchiveTable.QUERY_PAGE)) {
+      query.setLong(1, before);
+      query.setInt(2, pageSize);
+      try (ResultSet resultSet = query.executeQuery()) {
+        return getRows(resultSet);
+      }
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  // Every row of a query, each as one string of its columns
+  private List<String> getRows(String query) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(query)) {
+      return getRows(resultSet);
+    }
+  }
+
+  private static List<String> getRows(ResultSet resultSet) throws SQLException {
+    List<String> rows = new ArrayList<>();
+    int columns = resultSet.getMetaData().getColumnCount();
+    while (resultSet.next()) {
+      StringBuilder row = new StringBuilder();
+      for (int column = 1; column <= columns; column++) {
+        row.append(resultSet.getString(column)).append('|');
+      }
+      rows.add(row.toString());
+    }
+    return rows;
+  }
+
+  private List<String> getIndexes() throws SQLException {
+    List<String> indexes = new ArrayList<>();
+    for (String row : getRows("SELECT name FROM sqlite_master WHERE type='index'")) {
+      indexes.add(row.substring(0, row.length() - 1));
+    }
+    return indexes;
+  }
+
+  private String getQueryPlan(String query) throws SQLException {
+    return getRows("EXPLAIN QUERY PLAN " + query).toString();
+  }
+}